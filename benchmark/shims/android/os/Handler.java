@@ -0,0 +1,54 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.Handler
+ *
+ * Runnables are queued on the looper and run when it runs, never on the posting thread, same as
+ * on a device. Delayed runnables become due after their delay in SystemClock.uptimeMillis time
+ * and removeCallbacks drops queued ones. Messages are not supported, the plugin and the Play
+ * services task executors only post runnables.
+ */
+public class Handler {
+    /**
+     * Same signature as the framework interface, for Handler subclasses in Play services
+     */
+    public interface Callback {
+        boolean handleMessage(Message msg);
+    }
+
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.myLooper(), null);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        if (looper == null) {
+            throw new RuntimeException("Can't create handler inside thread " + Thread.currentThread()
+                    + " that has not called Looper.prepare()");
+        }
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(Runnable r) {
+        looper.enqueue(this, r, SystemClock.uptimeMillis());
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        looper.enqueue(this, r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(this, r);
+    }
+}
@@ -0,0 +1,104 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in for android.os.Looper
+ *
+ * There is a single main looper. Handlers queue their runnables on it in time order and nothing
+ * runs until a thread calls runPending, which runs every runnable that is due on the calling
+ * thread, the way the main thread does on a device. runPending is not framework API, benchmarks
+ * call it to deliver Play services listeners. While it runs, that thread is the main thread for
+ * myLooper.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private static final class Message implements Comparable<Message> {
+        final Handler target;
+        final Runnable callback;
+        final long when;
+        final long sequence;
+
+        Message(Handler target, Runnable callback, long when, long sequence) {
+            this.target = target;
+            this.callback = callback;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Message> queue = new PriorityQueue<Message>();
+    private long sequence;
+    private volatile Thread thread;
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MAIN.thread == Thread.currentThread() ? MAIN : null;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isCurrentThread() {
+        return thread == Thread.currentThread();
+    }
+
+    synchronized void enqueue(Handler target, Runnable callback, long when) {
+        queue.add(new Message(target, callback, when, sequence++));
+    }
+
+    synchronized void remove(Handler target, Runnable callback) {
+        Iterator<Message> messages = queue.iterator();
+        while (messages.hasNext()) {
+            Message message = messages.next();
+            if (message.target == target && message.callback == callback) {
+                messages.remove();
+            }
+        }
+    }
+
+    private synchronized Message next(long now) {
+        Message message = queue.peek();
+        if (message == null || message.when > now) {
+            return null;
+        }
+        return queue.poll();
+    }
+
+    /**
+     * Runs every queued runnable that is due, including ones they post, on the calling thread
+     * @return how many runnables ran
+     */
+    public int runPending() {
+        Thread previous = thread;
+        thread = Thread.currentThread();
+        try {
+            int count = 0;
+            Message message;
+            while ((message = next(SystemClock.uptimeMillis())) != null) {
+                message.callback.run();
+                count++;
+            }
+            return count;
+        } finally {
+            thread = previous;
+        }
+    }
+}
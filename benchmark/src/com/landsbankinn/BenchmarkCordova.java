@@ -0,0 +1,151 @@
+package com.landsbankinn;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Looper;
+import androidx.appcompat.app.AppCompatActivity;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal Cordova host for running the plugin on a plain JVM
+ *
+ * The thread pool runs work on the calling thread. Play services listeners are queued on the main
+ * looper as on a device, benchmarks run it with runMainLooper after execute, so with a backend
+ * without latency one call including its callbacks completes before the benchmark method returns.
+ */
+class BenchmarkCordova implements CordovaInterface {
+    private final ExecutorService threadPool = new AbstractExecutorService() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    };
+
+    /**
+     * Creates a plugin wired to backend with the given preferences
+     */
+    static GoogleWallet plugin(TapAndPayBackend backend, CordovaPreferences preferences) {
+        GoogleWallet plugin = new GoogleWallet(backend);
+        plugin.privateInitialize("GoogleWallet", new BenchmarkCordova(), null, preferences);
+        return plugin;
+    }
+
+    /**
+     * Runs what the call posted to the main thread, including Play services task listeners
+     */
+    static void runMainLooper() {
+        Looper.getMainLooper().runPending();
+    }
+
+    /**
+     * Executes action once and checks that it succeeds, so a broken setup fails the run instead
+     * of measuring calls that never deliver
+     */
+    static PluginResult call(GoogleWallet plugin, String action, JSONArray args) {
+        Callback callback = new Callback();
+        plugin.execute(action, args, callback);
+        runMainLooper();
+        if (callback.result == null || callback.result.getStatus() != PluginResult.Status.OK.ordinal()) {
+            throw new IllegalStateException(action + " did not succeed: "
+                    + (callback.result != null ? callback.result.getMessage() : "no result"));
+        }
+        return callback.result;
+    }
+
+    @Override
+    public void startActivityForResult(CordovaPlugin command, Intent intent, int requestCode) {
+    }
+
+    @Override
+    public void setActivityResultCallback(CordovaPlugin plugin) {
+    }
+
+    @Override
+    public AppCompatActivity getActivity() {
+        return null;
+    }
+
+    @Override
+    public Context getContext() {
+        return null;
+    }
+
+    @Override
+    public Object onMessage(String id, Object data) {
+        return null;
+    }
+
+    @Override
+    public ExecutorService getThreadPool() {
+        return threadPool;
+    }
+
+    @Override
+    public void requestPermission(CordovaPlugin plugin, int requestCode, String permission) {
+    }
+
+    @Override
+    public void requestPermissions(CordovaPlugin plugin, int requestCode, String[] permissions) {
+    }
+
+    @Override
+    public boolean hasPermission(String permission) {
+        return true;
+    }
+
+    // Added to CordovaInterface after cordova-android 10, not an override when benchmarking against 10.1.1
+    public void setActivityResultRequestCode(int requestCode) {
+    }
+
+    /**
+     * CallbackContext that keeps the last result instead of sending it to a WebView
+     */
+    static class Callback extends CallbackContext {
+        PluginResult result;
+        int count;
+
+        Callback() {
+            super("benchmark", null);
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            result = pluginResult;
+            count++;
+        }
+    }
+}
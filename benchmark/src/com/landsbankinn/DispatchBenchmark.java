@@ -0,0 +1,111 @@
+package com.landsbankinn;
+
+import org.apache.cordova.CordovaPreferences;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full execute path against a zero latency backend: action table lookup, inline handler,
+ * Task listeners, JSON building and PluginResult encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({ "1", "10", "100", "1000" })
+    public int tokenCount;
+
+    private GoogleWallet uncached;
+    private GoogleWallet cached;
+    private GoogleWallet measured;
+    private final BenchmarkCordova.Callback callback = new BenchmarkCordova.Callback();
+    private final JSONArray noArgs = new JSONArray();
+    private final JSONArray isCardArgs = new JSONArray();
+    private final JSONArray findTokensArgs = new JSONArray();
+
+    @Setup
+    public void setup() throws Exception {
+        FakeTapAndPayBackend backend = new FakeTapAndPayBackend(tokenCount, 0);
+
+        CordovaPreferences noCache = new CordovaPreferences();
+        noCache.set("GoogleWalletTokenCacheTtl", 0);
+        uncached = BenchmarkCordova.plugin(backend, noCache);
+
+        CordovaPreferences longCache = new CordovaPreferences();
+        longCache.set("GoogleWalletTokenCacheTtl", 3600);
+        cached = BenchmarkCordova.plugin(backend, longCache);
+
+        CordovaPreferences metrics = new CordovaPreferences();
+        metrics.set("GoogleWalletTokenCacheTtl", 0);
+        metrics.set("GoogleWalletMetrics", true);
+        measured = BenchmarkCordova.plugin(backend, metrics);
+
+        isCardArgs.put(backend.tokens().get(tokenCount - 1).fpanLastFour);
+        findTokensArgs.put(new JSONObject().put("fpanLastFour", backend.tokens().get(tokenCount - 1).fpanLastFour));
+
+        BenchmarkCordova.call(uncached, "listTokens", noArgs);
+        BenchmarkCordova.call(cached, "listTokens", noArgs);
+        BenchmarkCordova.call(measured, "listTokens", noArgs);
+        BenchmarkCordova.call(uncached, "getActiveWalletID", noArgs);
+        BenchmarkCordova.call(uncached, "isCardInWallet", isCardArgs);
+        BenchmarkCordova.call(cached, "findTokens", findTokensArgs);
+    }
+
+    @Benchmark
+    public void listTokens(Blackhole blackhole) {
+        uncached.execute("listTokens", noArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+
+    @Benchmark
+    public void listTokensCached(Blackhole blackhole) {
+        cached.execute("listTokens", noArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+
+    @Benchmark
+    public void listTokensWithMetrics(Blackhole blackhole) {
+        measured.execute("listTokens", noArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+
+    @Benchmark
+    public void getActiveWalletID(Blackhole blackhole) {
+        uncached.execute("getActiveWalletID", noArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+
+    @Benchmark
+    public void isCardInWallet(Blackhole blackhole) {
+        uncached.execute("isCardInWallet", isCardArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+
+    @Benchmark
+    public void findTokens(Blackhole blackhole) {
+        cached.execute("findTokens", findTokensArgs, callback);
+        BenchmarkCordova.runMainLooper();
+        blackhole.consume(callback.result);
+    }
+}
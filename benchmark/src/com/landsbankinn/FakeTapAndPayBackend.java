@@ -0,0 +1,106 @@
+package com.landsbankinn;
+
+import android.app.Activity;
+import com.google.android.gms.tapandpay.TapAndPay;
+import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory TapAndPayBackend
+ *
+ * Serves a fixed wallet with tokenCount synthetic tokens. With latencyMillis 0 every call returns an
+ * already completed Task, otherwise the Task completes after the given delay to simulate the IPC.
+ */
+class FakeTapAndPayBackend implements TapAndPayBackend {
+    private static final ScheduledExecutorService DELAY = Executors.newSingleThreadScheduledExecutor();
+
+    private final long latencyMillis;
+    private final String walletId = "fake-wallet-id";
+    private final String hardwareId = "fake-hardware-id";
+    private final List<WalletToken> tokens;
+
+    FakeTapAndPayBackend(int tokenCount, long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.tokens = Collections.unmodifiableList(syntheticTokens(tokenCount));
+    }
+
+    static List<WalletToken> syntheticTokens(int count) {
+        List<WalletToken> tokens = new ArrayList<WalletToken>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(new WalletToken(
+                    "DNITHE" + String.format("%014d", i),
+                    "Landsbankinn",
+                    String.format("%04d", i % 10000),
+                    String.format("%04d", (i * 7) % 10000),
+                    TapAndPay.TOKEN_PROVIDER_VISA,
+                    TapAndPay.CARD_NETWORK_VISA,
+                    TapAndPay.TOKEN_STATE_ACTIVE,
+                    i == 0,
+                    "Debit"));
+        }
+        return tokens;
+    }
+
+    List<WalletToken> tokens() {
+        return tokens;
+    }
+
+    private <T> Task<T> complete(final T result) {
+        if (latencyMillis <= 0) {
+            return Tasks.forResult(result);
+        }
+        final TaskCompletionSource<T> source = new TaskCompletionSource<T>();
+        DELAY.schedule(new Runnable() {
+            @Override
+            public void run() {
+                source.setResult(result);
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+        return source.getTask();
+    }
+
+    @Override
+    public Task<String> getActiveWalletId() {
+        return complete(walletId);
+    }
+
+    @Override
+    public Task<String> getStableHardwareId() {
+        return complete(hardwareId);
+    }
+
+    @Override
+    public Task<List<WalletToken>> listTokens() {
+        return complete(tokens);
+    }
+
+    @Override
+    public Task<Boolean> isTokenized(String identifier, int network, int tokenServiceProvider) {
+        for (WalletToken token : tokens) {
+            if (token.fpanLastFour.equals(identifier) && token.network == network) {
+                return complete(Boolean.TRUE);
+            }
+        }
+        return complete(Boolean.FALSE);
+    }
+
+    @Override
+    public void pushTokenize(Activity activity, PushTokenizeRequest request, int requestCode) {
+    }
+
+    @Override
+    public void registerDataChangedListener(TapAndPay.DataChangedListener listener) {
+    }
+
+    @Override
+    public void removeDataChangedListener(TapAndPay.DataChangedListener listener) {
+    }
+}
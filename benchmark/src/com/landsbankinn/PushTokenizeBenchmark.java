@@ -0,0 +1,61 @@
+package com.landsbankinn;
+
+import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argument parsing and request building done by pushTokenize before the Google Wallet activity launches
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushTokenizeBenchmark {
+    private String json;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder opc = new StringBuilder();
+        while (opc.length() < 4096) {
+            opc.append("eyJhbGciOiJSU0EtT0FFUC0yNTYiLCJlbmMiOiJBMjU2R0NNIn0.");
+        }
+        JSONObject address = new JSONObject();
+        address.put("name", "Jon Jonsson");
+        address.put("address1", "Reykjastraeti 6");
+        address.put("locality", "Reykjavik");
+        address.put("countryCode", "IS");
+        address.put("postalCode", "101");
+        address.put("phoneNumber", "+3544109000");
+        JSONArray args = new JSONArray();
+        args.put(opc.toString());
+        args.put("Debit card");
+        args.put("1234");
+        args.put(address);
+        args.put("utf8");
+        args.put("visa");
+        json = args.toString();
+    }
+
+    @Benchmark
+    public PushTokenizeRequest prepare() throws Exception {
+        // The bridge hands execute a freshly parsed JSONArray on every call
+        JSONArray args = new JSONArray(json);
+        int network = CardNetworks.network(args.opt(5));
+        return GoogleWallet.buildPushTokenizeRequest(GoogleWallet.readOpaquePaymentCard(args), args.getString(1), args.getString(2), args.getJSONObject(3),
+                network, CardNetworks.tokenServiceProvider(args.opt(6), network));
+    }
+}
@@ -0,0 +1,69 @@
+package com.landsbankinn;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token list serialization and the snapshot bookkeeping done on every fresh listTokens result
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({ "1", "10", "100", "1000" })
+    public int tokenCount;
+
+    private List<WalletToken> tokens;
+    private JSONArray serialized;
+    private TokenSnapshot snapshot;
+    private long version;
+
+    @Setup
+    public void setup() throws Exception {
+        tokens = FakeTapAndPayBackend.syntheticTokens(tokenCount);
+        serialized = WalletToken.toJSON(tokens);
+        snapshot = new TokenSnapshot();
+        version = snapshot.update(serialized);
+    }
+
+    @Benchmark
+    public JSONArray toJSON() throws Exception {
+        return WalletToken.toJSON(tokens);
+    }
+
+    @Benchmark
+    public String encode() {
+        // What PluginResult does with a JSONArray before it crosses the bridge
+        return serialized.toString();
+    }
+
+    @Benchmark
+    public long snapshotUpdate() throws Exception {
+        return snapshot.update(serialized);
+    }
+
+    @Benchmark
+    public Object snapshotSince() throws Exception {
+        return snapshot.since(version);
+    }
+
+    @Benchmark
+    public Object diff() throws Exception {
+        return TokenDiff.between(serialized, serialized);
+    }
+}
@@ -0,0 +1,140 @@
+package com.landsbankinn;
+
+import android.os.Handler;
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Action table of the plugin
+ *
+ * Every action is registered once with the thread its handler runs on:
+ * - INLINE: on the calling bridge thread, for handlers that only start Play services tasks or read memory
+ * - WORKER: on the plugin's own small executor, for parsing, disk and other blocking work
+ * - MAIN: on the main thread, for state that is only touched there
+ *
+ * The worker executor has a bounded queue and does not share threads with other plugins. When it
+ * is full the call is rejected with BUSY_MESSAGE instead of queueing without limit.
+ * Exceptions thrown by a handler reject its callback with the exception message.
+ */
+final class ActionDispatcher {
+    static final int INLINE = 0;
+    static final int WORKER = 1;
+    static final int MAIN = 2;
+    static final String BUSY_MESSAGE = "GoogleWallet is busy, too many pending calls";
+
+    private static final int WORKER_THREADS = 2;
+    private static final int WORKER_QUEUE_SIZE = 32;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    interface ActionHandler {
+        void handle(JSONArray args, CallbackContext callbackContext) throws Exception;
+    }
+
+    private static final class Action {
+        final int thread;
+        final ActionHandler handler;
+
+        Action(int thread, ActionHandler handler) {
+            this.thread = thread;
+            this.handler = handler;
+        }
+    }
+
+    private final Map<String, Action> actions = new HashMap<String, Action>();
+    private final Handler mainHandler;
+    private final ThreadPoolExecutor worker;
+
+    private final Executor overflow;
+
+    /**
+     * Executor for plugin-internal background work. When the worker queue is full or the worker
+     * was shut down the work goes to the overflow executor rather than being dropped, never to the
+     * calling thread, which is often the main thread.
+     */
+    final Executor background = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            try {
+                worker.execute(command);
+            } catch (RejectedExecutionException e) {
+                overflow.execute(command);
+            }
+        }
+    };
+
+    /**
+     * @param overflow off-main executor for background work the worker rejects
+     */
+    ActionDispatcher(Handler mainHandler, Executor overflow) {
+        this.mainHandler = mainHandler;
+        this.overflow = overflow;
+        final AtomicInteger threads = new AtomicInteger();
+        worker = new ThreadPoolExecutor(
+                WORKER_THREADS, WORKER_THREADS, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(WORKER_QUEUE_SIZE),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "GoogleWallet-" + threads.incrementAndGet());
+                    }
+                });
+        // Idle plugins keep no threads around
+        worker.allowCoreThreadTimeOut(true);
+    }
+
+    void register(String action, int thread, ActionHandler handler) {
+        actions.put(action, new Action(thread, handler));
+    }
+
+    /**
+     * Runs the handler of action on its thread
+     * @return false if no handler is registered for action
+     */
+    boolean dispatch(String action, final JSONArray args, final CallbackContext callbackContext) {
+        final Action entry = actions.get(action);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.thread == INLINE) {
+            run(entry.handler, args, callbackContext);
+            return true;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ActionDispatcher.run(entry.handler, args, callbackContext);
+            }
+        };
+        if (entry.thread == MAIN) {
+            mainHandler.post(task);
+            return true;
+        }
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            callbackContext.error(BUSY_MESSAGE);
+        }
+        return true;
+    }
+
+    private static void run(ActionHandler handler, JSONArray args, CallbackContext callbackContext) {
+        try {
+            handler.handle(args, callbackContext);
+        } catch (Exception e) {
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    void shutdown() {
+        worker.shutdown();
+    }
+}
@@ -0,0 +1,89 @@
+package com.landsbankinn;
+
+import com.google.android.gms.tapandpay.TapAndPay;
+import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Card network and token service provider arguments of pushTokenize
+ *
+ * Both are given either by name (visa, mastercard, ...) or as the TapAndPay constant. Without a
+ * network Visa is used. Without a token service provider the usual provider of the network is
+ * used, networks without one in NETWORK_PROVIDERS need it given explicitly.
+ */
+final class CardNetworks {
+    private static final Map<String, Integer> NETWORKS = new HashMap<String, Integer>();
+    private static final Map<String, Integer> PROVIDERS = new HashMap<String, Integer>();
+    // Default token service provider of each network
+    private static final Map<Integer, Integer> NETWORK_PROVIDERS = new HashMap<Integer, Integer>();
+    static {
+        NETWORKS.put("amex", TapAndPay.CARD_NETWORK_AMEX);
+        NETWORKS.put("discover", TapAndPay.CARD_NETWORK_DISCOVER);
+        NETWORKS.put("mastercard", TapAndPay.CARD_NETWORK_MASTERCARD);
+        NETWORKS.put("visa", TapAndPay.CARD_NETWORK_VISA);
+        NETWORKS.put("interac", TapAndPay.CARD_NETWORK_INTERAC);
+        NETWORKS.put("eftpos", TapAndPay.CARD_NETWORK_EFTPOS);
+        NETWORKS.put("maestro", TapAndPay.CARD_NETWORK_MAESTRO);
+        NETWORKS.put("jcb", TapAndPay.CARD_NETWORK_JCB);
+        NETWORKS.put("elo", TapAndPay.CARD_NETWORK_ELO);
+        PROVIDERS.put("amex", TapAndPay.TOKEN_PROVIDER_AMEX);
+        PROVIDERS.put("discover", TapAndPay.TOKEN_PROVIDER_DISCOVER);
+        PROVIDERS.put("mastercard", TapAndPay.TOKEN_PROVIDER_MASTERCARD);
+        PROVIDERS.put("visa", TapAndPay.TOKEN_PROVIDER_VISA);
+        PROVIDERS.put("interac", TapAndPay.TOKEN_PROVIDER_INTERAC);
+        PROVIDERS.put("eftpos", TapAndPay.TOKEN_PROVIDER_EFTPOS);
+        PROVIDERS.put("jcb", TapAndPay.TOKEN_PROVIDER_JCB);
+        PROVIDERS.put("elo", TapAndPay.TOKEN_PROVIDER_ELO);
+        for (Map.Entry<String, Integer> network : NETWORKS.entrySet()) {
+            Integer provider = PROVIDERS.get(network.getKey());
+            if (provider != null) {
+                NETWORK_PROVIDERS.put(network.getValue(), provider);
+            }
+        }
+        NETWORK_PROVIDERS.put(TapAndPay.CARD_NETWORK_MAESTRO, TapAndPay.TOKEN_PROVIDER_MASTERCARD);
+    }
+
+    private CardNetworks() {
+    }
+
+    /**
+     * @param value network name or TapAndPay.CARD_NETWORK_* constant, null or JSONObject.NULL for Visa
+     */
+    static int network(Object value) {
+        if (isMissing(value)) {
+            return TapAndPay.CARD_NETWORK_VISA;
+        }
+        return lookup(NETWORKS, value, "network");
+    }
+
+    /**
+     * @param value provider name or TapAndPay.TOKEN_PROVIDER_* constant, null or JSONObject.NULL for the provider of network
+     */
+    static int tokenServiceProvider(Object value, int network) {
+        if (isMissing(value)) {
+            Integer provider = NETWORK_PROVIDERS.get(network);
+            if (provider == null) {
+                throw new IllegalArgumentException("tokenServiceProvider is required for network " + network);
+            }
+            return provider;
+        }
+        return lookup(PROVIDERS, value, "tokenServiceProvider");
+    }
+
+    private static boolean isMissing(Object value) {
+        return value == null || value == JSONObject.NULL;
+    }
+
+    private static int lookup(Map<String, Integer> names, Object value, String field) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        Integer constant = names.get(value.toString().toLowerCase(Locale.ROOT));
+        if (constant == null) {
+            throw new IllegalArgumentException("Unknown " + field + ": " + value);
+        }
+        return constant;
+    }
+}
@@ -4,148 +4,331 @@ import static android.app.Activity.RESULT_CANCELED;
 import static android.app.Activity.RESULT_OK;
 import static com.google.android.gms.tapandpay.TapAndPayStatusCodes.TAP_AND_PAY_NO_ACTIVE_WALLET;
 
+import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
-import android.util.Log;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
 import androidx.annotation.NonNull;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.tapandpay.TapAndPay;
-import com.google.android.gms.tapandpay.TapAndPayClient;
-import com.google.android.gms.tapandpay.issuer.IsTokenizedRequest;
 import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
 import com.google.android.gms.tapandpay.issuer.UserAddress;
-import com.google.android.gms.tapandpay.issuer.TokenInfo;
+import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCanceledListener;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class GoogleWallet extends CordovaPlugin {
-    private static final String TAG = "GoogleWalletPlugin";
-    private static final int REQUEST_CODE_PUSH_TOKENIZE = 3;
+    // Each pushTokenize launch gets its own request code from this range
+    private static final int REQUEST_CODE_PUSH_TOKENIZE = 0x4700;
+    private static final int REQUEST_CODE_PUSH_TOKENIZE_COUNT = 64;
+    private static final long PUSH_TOKENIZE_TIMEOUT_MS = 15 * 60 * 1000;
+    private static final String OPC_BINARY = "binary";
+    private static final String OPC_BASE64 = "base64";
+    private static final int DEFAULT_TOKEN_CACHE_TTL_SECONDS = 30;
+    private static final int DEFAULT_WALLET_CHANGES_DEBOUNCE_MS = 500;
+    private static final long PREFETCH_HOLD_MS = 10000;
+    // Actions measured by WalletMetrics
+    private static final String[] MEASURED_ACTIONS = {
+            "getActiveWalletID", "getStableHardwareId", "listTokens", "listTokensSince", "pushTokenize",
+            "pushTokenizeBatch", "isCardInWallet", "isCardsInWallet", "findTokens", "getWalletState", "getCachedWalletState", "subscribeWalletChanges" };
     private CordovaInterface cordova;
-    private TapAndPayClient tapAndPayClient;
-    private CallbackContext callbackContext;
+    private TapAndPayBackend backend;
+    private TokenCache tokenCache;
+    private WalletStateStore walletStateStore;
+    private final InFlightTasks inFlightTasks = new InFlightTasks();
+    private final TokenSnapshot tokenSnapshot = new TokenSnapshot();
+    private TokenIndex tokenIndex;
+    // Bumped whenever the token list is invalidated, listTokens tasks started under an older
+    // generation are not joined and do not write their result back
+    private long tokensGeneration;
+    private final Object tokensLock = new Object();
+    private final Prefetch<String> walletIdPrefetch = new Prefetch<String>(PREFETCH_HOLD_MS);
+    private final Prefetch<JSONArray> tokensPrefetch = new Prefetch<JSONArray>(PREFETCH_HOLD_MS);
+    private boolean prefetchEnabled;
+    private WalletMetrics metrics;
+    private final WalletTrace trace = new WalletTrace(WalletTrace.ERROR, 1);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ActionDispatcher dispatcher;
+    private final PendingRequests pendingRequests = new PendingRequests(REQUEST_CODE_PUSH_TOKENIZE, REQUEST_CODE_PUSH_TOKENIZE_COUNT);
+    private CallbackContext walletChangesCallback;
+    private JSONArray walletChangesTokens;
+    private long walletChangesDebounceMs = DEFAULT_WALLET_CHANGES_DEBOUNCE_MS;
+    private int walletChangesPending;
+    private boolean walletChangesListening;
+    private volatile boolean destroyed;
 
 
+    public GoogleWallet() {
+    }
+
+    /**
+     * @param backend used instead of the Play services TapAndPayClient, for benchmarks
+     */
+    GoogleWallet(TapAndPayBackend backend) {
+        this.backend = backend;
+    }
+
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         super.initialize(cordova, webView);
         this.cordova = cordova;
-        tapAndPayClient = TapAndPay.getClient(this.cordova.getActivity());
-        Log.i(TAG, "INITIALIZED");
+        dispatcher = new ActionDispatcher(mainHandler, cordova.getThreadPool());
+        registerActions();
+        if (backend == null) {
+            backend = new PlayServicesBackend(TapAndPay.getClient(this.cordova.getActivity()));
+        }
+        // <preference name="GoogleWalletTokenCacheTtl" value="30" /> in seconds, 0 disables the cache
+        int ttlSeconds = preferences.getInteger("GoogleWalletTokenCacheTtl", DEFAULT_TOKEN_CACHE_TTL_SECONDS);
+        tokenCache = new TokenCache(ttlSeconds * 1000L);
+        tokenIndex = new TokenIndex(ttlSeconds * 1000L);
+        // <preference name="GoogleWalletPersistentSnapshot" value="true" /> to keep an encrypted snapshot for getCachedWalletState
+        if (preferences.getBoolean("GoogleWalletPersistentSnapshot", false)) {
+            walletStateStore = new WalletStateStore(this.cordova.getActivity().getApplicationContext(), trace);
+        }
+        // <preference name="GoogleWalletTraceLevel" value="info" /> off, error, info or debug
+        // <preference name="GoogleWalletTraceSampleRate" value="1" /> share of info and debug lines that are logged
+        trace.configure(
+                WalletTrace.parseLevel(preferences.getString("GoogleWalletTraceLevel", "error"), WalletTrace.ERROR),
+                preferences.getDouble("GoogleWalletTraceSampleRate", 1));
+        // <preference name="GoogleWalletMetrics" value="true" /> to collect latency histograms for getMetrics
+        metrics = new WalletMetrics(MEASURED_ACTIONS, preferences.getBoolean("GoogleWalletMetrics", false));
+        // <preference name="GoogleWalletPrefetch" value="true" /> to start getActiveWalletId and listTokens on load,
+        // together with the onload feature param in the app's config.xml
+        prefetchEnabled = preferences.getBoolean("GoogleWalletPrefetch", false);
+        if (prefetchEnabled) {
+            walletIdPrefetch.start(activeWalletIdTask());
+            tokensPrefetch.start(listTokensTask());
+        }
+        trace.i("INITIALIZED");
     }
 
     @Override
-    public boolean execute(String action, JSONArray args, CallbackContext callbackContext) {
-        Log.i(TAG, action);
-        Log.i(TAG, args.toString());
-
-        this.callbackContext = callbackContext;
-
-        if ("getActiveWalletID".equals(action)) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                @Override
-                public void run() {
-                    getActiveWalletID(callbackContext);
-                }
-            });
-            return true;
-        } else if ("getStableHardwareId".equals(action)) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                @Override
-                public void run() {
-                    getStableHardwareId(callbackContext);
-                }
-            });
-            return true;
-        } else if ("listTokens".equals(action)) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                @Override
-                public void run() {
-                    listTokens(callbackContext);
-                }
-            });
-            return true;
-        } else if ("pushTokenize".equals(action)) {
-            final CordovaPlugin plugin = (CordovaPlugin) this;
-
-            this.cordova.getActivity().runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        String opc = args.getString(0);
-                        String displayName = args.getString(1);
-                        String lastDigits = args.getString(2);
-                        JSONObject address = args.getJSONObject(3);
-
-                        pushTokenize(opc, displayName, lastDigits, address, callbackContext);
-                    } catch (Exception e) {
-                        callbackContext.error(e.getMessage());
-                    }
-                }
-            });
-
-            return true;
-        } else if ("isCardInWallet".equals(action)) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                @Override
-                public void run() {
-                    try{
-                        String identifier = args.getString(0);
-                        isCardInWallet(identifier, callbackContext);
-                    } catch (Exception e) {
-                        callbackContext.error(e.getMessage());
-                    }
-                }
-            });
-
+    public boolean execute(String action, JSONArray args, CallbackContext untrackedCallbackContext) {
+        trace.call(action, args);
+        CallbackContext callbackContext = metrics.track(action, untrackedCallbackContext);
+        if (dispatcher.dispatch(action, args, callbackContext)) {
             return true;
         }
         callbackContext.error("\"" + action + "\" is not a recognized action.");
         return false;
     }
 
+    /**
+     * Fills the action table. Handlers that only start Play services tasks or read memory run
+     * inline on the bridge thread, pushTokenize preparation and the snapshot file read run on the
+     * dispatcher's worker, and wallet change subscriptions on the main thread.
+     */
+    private void registerActions() {
+        dispatcher.register("getActiveWalletID", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                getActiveWalletID(callbackContext);
+            }
+        });
+        dispatcher.register("getStableHardwareId", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                getStableHardwareId(callbackContext);
+            }
+        });
+        dispatcher.register("listTokens", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                listTokens(args.optBoolean(0, false), callbackContext);
+            }
+        });
+        dispatcher.register("listTokensSince", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                listTokensSince(args.optLong(0, 0), args.optBoolean(1, false), callbackContext);
+            }
+        });
+        dispatcher.register("getPrefetchStats", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                JSONObject value = new JSONObject();
+                value.put("enabled", prefetchEnabled);
+                value.put("walletId", walletIdPrefetch.stats());
+                value.put("tokens", tokensPrefetch.stats());
+                callbackContext.success(value);
+            }
+        });
+        dispatcher.register("getMetrics", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                callbackContext.success(metrics.toJSON(args.optBoolean(0, false)));
+            }
+        });
+        dispatcher.register("setTrace", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                JSONObject options = args.optJSONObject(0);
+                if (options != null) {
+                    trace.configure(
+                            WalletTrace.parseLevel(options.optString("level", null), trace.getLevel()),
+                            options.optDouble("sampleRate", trace.getSampleRate()));
+                }
+                callbackContext.success(trace.toJSON());
+            }
+        });
+        dispatcher.register("getTokenCacheStats", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                callbackContext.success(tokenCache.stats());
+            }
+        });
+        dispatcher.register("pushTokenize", ActionDispatcher.WORKER, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                pushTokenize(args, callbackContext);
+            }
+        });
+        dispatcher.register("pushTokenizeBatch", ActionDispatcher.WORKER, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                pushTokenizeBatch(args.optJSONArray(0), callbackContext);
+            }
+        });
+        dispatcher.register("findTokens", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                JSONObject query = args.optJSONObject(0);
+                findTokens(query != null ? query : new JSONObject(), args.optBoolean(1, false), callbackContext);
+            }
+        });
+        dispatcher.register("isCardInWallet", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                isCardInWallet(args.getString(0), callbackContext);
+            }
+        });
+        dispatcher.register("isCardsInWallet", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                isCardsInWallet(args.getJSONArray(0), callbackContext);
+            }
+        });
+        dispatcher.register("getWalletState", ActionDispatcher.INLINE, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                JSONArray identifiers = args.optJSONArray(0);
+                getWalletState(identifiers != null ? identifiers : new JSONArray(), args.optBoolean(1, false), callbackContext);
+            }
+        });
+        dispatcher.register("getCachedWalletState", ActionDispatcher.WORKER, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                getCachedWalletState(callbackContext);
+            }
+        });
+        dispatcher.register("subscribeWalletChanges", ActionDispatcher.MAIN, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                subscribeWalletChanges(args.optLong(0, DEFAULT_WALLET_CHANGES_DEBOUNCE_MS), callbackContext);
+            }
+        });
+        dispatcher.register("unsubscribeWalletChanges", ActionDispatcher.MAIN, new ActionDispatcher.ActionHandler() {
+            @Override
+            public void handle(JSONArray args, CallbackContext callbackContext) throws Exception {
+                unsubscribeWalletChanges();
+                callbackContext.success();
+            }
+        });
+    }
+
     /**
      * Returns the Wallet ID of the active wallet. If there is no active wallet, the status
      * TapAndPayStatusCodes.TAP_AND_PAY_NO_ACTIVE_WALLET is returned. A wallet can be created using the method createWallet.
      */
     private void getActiveWalletID(CallbackContext callbackContext) {
-        Log.i(TAG, "getActiveWalletID");
-        tapAndPayClient
-                .getActiveWalletId()
+        WalletMetrics.started(callbackContext);
+        trace.i("getActiveWalletID");
+        activeWalletIdTask()
                 .addOnCompleteListener(
                         new OnCompleteListener<String>() {
                             @Override
                             public void onComplete(@NonNull Task<String> task) {
-                                Log.i(TAG, "getActiveWalletID onComplete " + task.isSuccessful());
+                                WalletMetrics.completed(callbackContext);
+                                trace.i("getActiveWalletID onComplete ", task.isSuccessful());
                                 if (task.isSuccessful()) {
-                                    String result = task.getResult();
-                                    callbackContext.success(result);
+                                    callbackContext.success(task.getResult());
                                 } else {
-                                    ApiException apiException = (ApiException) task.getException();
-                                    String message = apiException.getMessage();
-                                    int statusCode = apiException.getStatusCode();
-                                    Log.i(TAG, "getActiveWalletID onComplete " + Integer.toString(statusCode));
-                                    try {
-                                        JSONObject value = new JSONObject();
-                                        value.put("message", message);
-                                        value.put("statusCode", statusCode);
-                                        callbackContext.error(value);
-                                    } catch (Exception e) {
-                                        callbackContext.error(e.getMessage());
-                                    }
+                                    sendApiError("getActiveWalletID", task.getException(), callbackContext);
                                 }
                             }
                         });
     }
 
+    /**
+     * Shared getActiveWalletId task, concurrent callers attach to the same IPC.
+     * The first caller after load takes the prefetched task if there is one.
+     */
+    private Task<String> activeWalletIdTask() {
+        Task<String> prefetched = walletIdPrefetch.take();
+        if (prefetched != null) {
+            return prefetched;
+        }
+        return inFlightTasks.join("getActiveWalletID", new InFlightTasks.Starter<String>() {
+            @Override
+            public Task<String> start() {
+                return backend
+                        .getActiveWalletId()
+                        .addOnCompleteListener(
+                                new OnCompleteListener<String>() {
+                                    @Override
+                                    public void onComplete(@NonNull Task<String> task) {
+                                        if (task.isSuccessful()) {
+                                            onWalletId(task.getResult());
+                                        } else if (task.getException() instanceof ApiException
+                                                && ((ApiException) task.getException()).getStatusCode() == TAP_AND_PAY_NO_ACTIVE_WALLET) {
+                                            onWalletId(null);
+                                        }
+                                    }
+                                });
+            }
+        });
+    }
+
+    /**
+     * Drops everything known about the tokens of the previous wallet when the active wallet changes
+     * @param walletId the active wallet ID, or null if there is no active wallet
+     */
+    private void onWalletId(String walletId) {
+        if (tokenCache.onWalletId(walletId)) {
+            synchronized (tokensLock) {
+                tokensGeneration++;
+                tokenSnapshot.reset();
+                tokenIndex.clear();
+            }
+            if (walletStateStore != null) {
+                dispatcher.background.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // getCachedWalletState may already have saved the new wallet's snapshot
+                        walletStateStore.clearUnlessWallet(walletId);
+                    }
+                });
+            }
+        }
+    }
+
     /**
      * List tokens in the active wallet
      * 
@@ -153,55 +336,131 @@ public class GoogleWallet extends CordovaPlugin {
      * Note that the API only returns token details for tokens with metadata 
      * matching your app package name. You can check if your tokens have this
      * linking by tapping on the card in the Google Wallet app to see the card details view.
+     *
+     * Results are served from the token cache while it is fresh.
+     * @param refresh bypass and refill the token cache
      */
-    private void listTokens(CallbackContext callbackContext) {
-        Log.i(TAG, "listTokens");
-        tapAndPayClient
-                .listTokens()
+    private void listTokens(boolean refresh, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        trace.i("listTokens");
+        cachedListTokensTask(refresh)
                 .addOnCompleteListener(
-                        new OnCompleteListener<List<TokenInfo>>() {
+                        new OnCompleteListener<JSONArray>() {
                             @Override
-                            public void onComplete(@NonNull Task<List<TokenInfo>> task) {
-                                Log.i(TAG, "listTokens onComplete " + task.isSuccessful());
+                            public void onComplete(@NonNull Task<JSONArray> task) {
+                                WalletMetrics.completed(callbackContext);
+                                trace.i("listTokens onComplete ", task.isSuccessful());
                                 if (task.isSuccessful()) {
-                                    JSONArray result = new JSONArray();
-                                    try {
-                                        for (TokenInfo token : task.getResult()) {
-                                            Log.d(TAG, "Found token with ID: " + token.getIssuerTokenId());
-                                            JSONObject item = new JSONObject();
-                                            item.put("issuerTokenId", token.getIssuerTokenId());
-                                            item.put("issuerName", token.getIssuerName());
-                                            item.put("fpanLastFour", token.getFpanLastFour());
-                                            item.put("dpanLastFour", token.getDpanLastFour());
-                                            item.put("tokenServiceProvider", token.getTokenServiceProvider());
-                                            item.put("network", token.getNetwork());
-                                            item.put("tokenState", token.getTokenState());
-                                            item.put("isDefaultToken", token.getIsDefaultToken());
-                                            item.put("portfolioName", token.getPortfolioName());
-                                            
-                                        }
-                                        callbackContext.success(result);
-                                    } catch(Exception e) {
-                                        callbackContext.error(e.getMessage());
-                                    }
+                                    callbackContext.success(task.getResult());
                                 } else {
-                                    ApiException apiException = (ApiException) task.getException();
-                                    String message = apiException.getMessage();
-                                    int statusCode = apiException.getStatusCode();
-                                    Log.i(TAG, "listTokens onComplete " + Integer.toString(statusCode));
+                                    sendApiError("listTokens", task.getException(), callbackContext);
+                                }
+                            }
+                        });
+    }
+
+    /**
+     * Incremental token sync
+     *
+     * Returns only the tokens added, changed or removed since the given snapshot version, keyed by
+     * issuerTokenId, together with the new version to pass on the next call. If the version is 0 or
+     * too old to diff against, the full token list is returned with full: true.
+     * @param version snapshot version the client last synced to, 0 for none
+     * @param refresh bypass and refill the token cache
+     */
+    private void listTokensSince(long version, boolean refresh, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        trace.i("listTokensSince ", version);
+        cachedListTokensTask(refresh)
+                .addOnCompleteListener(
+                        new OnCompleteListener<JSONArray>() {
+                            @Override
+                            public void onComplete(@NonNull Task<JSONArray> task) {
+                                WalletMetrics.completed(callbackContext);
+                                trace.i("listTokensSince onComplete ", task.isSuccessful());
+                                if (task.isSuccessful()) {
                                     try {
-                                        JSONObject value = new JSONObject();
-                                        value.put("message", message);
-                                        value.put("statusCode", statusCode);
-                                        callbackContext.error(value);
+                                        callbackContext.success(tokenSnapshot.since(version));
                                     } catch (Exception e) {
                                         callbackContext.error(e.getMessage());
                                     }
+                                } else {
+                                    sendApiError("listTokensSince", task.getException(), callbackContext);
                                 }
                             }
                         });
     }
 
+    /**
+     * Token list from the prefetch or the token cache if fresh, otherwise the shared listTokens task
+     * @param refresh bypass and refill the token cache
+     */
+    private Task<JSONArray> cachedListTokensTask(boolean refresh) {
+        if (refresh) {
+            invalidateTokens();
+        } else {
+            Task<JSONArray> prefetched = tokensPrefetch.take();
+            if (prefetched != null) {
+                return prefetched;
+            }
+            JSONArray cached = tokenCache.get();
+            if (cached != null) {
+                return Tasks.forResult(cached);
+            }
+        }
+        return listTokensTask();
+    }
+
+    /**
+     * Drops the cached token list and the token index built from it, the next read fetches again
+     */
+    private void invalidateTokens() {
+        synchronized (tokensLock) {
+            tokensGeneration++;
+            tokenCache.invalidate();
+            tokenIndex.clear();
+        }
+    }
+
+    /**
+     * Shared listTokens task, serializes the token list once and stores it in the token cache
+     *
+     * Callers only join a task started since the last invalidation, and a task whose generation
+     * was invalidated while it ran still answers its callers but leaves the cache, snapshot and
+     * index alone, so a forced refresh never gets an older list written back over it.
+     */
+    private Task<JSONArray> listTokensTask() {
+        final long generation;
+        synchronized (tokensLock) {
+            generation = tokensGeneration;
+        }
+        return inFlightTasks.join("listTokens:" + generation, new InFlightTasks.Starter<JSONArray>() {
+            @Override
+            public Task<JSONArray> start() {
+                return backend
+                        .listTokens()
+                        .continueWith(
+                                new Continuation<List<WalletToken>, JSONArray>() {
+                                    @Override
+                                    public JSONArray then(@NonNull Task<List<WalletToken>> task) throws Exception {
+                                        if (!task.isSuccessful()) {
+                                            throw task.getException();
+                                        }
+                                        trace.d("listTokens found tokens: ", task.getResult().size());
+                                        JSONArray result = WalletToken.toJSON(task.getResult());
+                                        synchronized (tokensLock) {
+                                            if (generation == tokensGeneration) {
+                                                tokenCache.put(result);
+                                                tokenIndex.update(tokenSnapshot.update(result), result);
+                                            }
+                                        }
+                                        return result;
+                                    }
+                                });
+            }
+        });
+    }
+
     /**
      * Each physical Android device has a stable hardware ID which is consistent between wallets for a given device. This ID will change as a result of a factory reset.
      * 
@@ -221,21 +480,29 @@ public class GoogleWallet extends CordovaPlugin {
      * https://developers.google.com/pay/issuers/apis/push-provisioning/android/reading-wallet?authuser=2#getstablehardwareid
      */
     private void getStableHardwareId(CallbackContext callbackContext) {
-        Log.i(TAG, "getStableHardwareId");
-        tapAndPayClient
-                .getStableHardwareId()
+        WalletMetrics.started(callbackContext);
+        trace.i("getStableHardwareId");
+        inFlightTasks
+                .join("getStableHardwareId", new InFlightTasks.Starter<String>() {
+                    @Override
+                    public Task<String> start() {
+                        return backend.getStableHardwareId();
+                    }
+                })
                 .addOnCompleteListener(
                         new OnCompleteListener<String>() {
                             @Override
                             public void onComplete(@NonNull Task<String> task) {
-                                Log.i(TAG, "getStableHardwareId onComplete " + task.isSuccessful());
+                                WalletMetrics.completed(callbackContext);
+                                trace.i("getStableHardwareId onComplete ", task.isSuccessful());
                                 if (task.isSuccessful()) {
                                     String hardwareId = task.getResult();
                                     if (hardwareId == "") {
                                         try {
                                             JSONObject value = new JSONObject();
                                             value.put("message", "No active wallet");
-                                            value.put("statusCode", 15002);
+                                            value.put("statusCode", TAP_AND_PAY_NO_ACTIVE_WALLET);
+                                            WalletMetrics.statusCode(callbackContext, TAP_AND_PAY_NO_ACTIVE_WALLET);
                                             callbackContext.error(value);
                                         } catch (Exception e) {
                                             callbackContext.error(e.getMessage());
@@ -263,88 +530,288 @@ public class GoogleWallet extends CordovaPlugin {
      * pushTokenize starts the push tokenization flow in which the issuer provides most or all
      * card details needed for Google Pay to get a valid token. Tokens added using this method
      * are added to the active wallet.
-     * 
-     * @param opc Opaque Payment Card binary data
-     * @param displayName Name or nickname used to describe the payment card in the user interface
-     * @param address JSONObject containing optional string properties: name, address1, address2, localitiy, administrativeArea, countryCode, postalCode and phoneNumber
-     * @param lastDigits Last 4 digits for the payment card required to correctly display the card in Google Pay UI
+     *
+     * The request is parsed and built on the calling worker thread, only the launch runs on the UI thread.
+     * @param args opc, displayName, lastDigits, address, opc encoding ("binary" or "utf8"), network and
+     * token service provider as read by readOpaquePaymentCard and CardNetworks
      * 
      * https://developers.google.com/pay/issuers/apis/push-provisioning/android/wallet-operations?authuser=2#client-side_push_provisioning
      */
-    private void pushTokenize(String opc, String displayName, String lastDigits, JSONObject address, CallbackContext callbackContext) {
-      
+    private void pushTokenize(JSONArray args, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        trace.i("pushTokenize");
+        final PushTokenizeRequest pushTokenizeRequest;
         try {
-            Log.i(TAG, "pushTokenize");
-
-            UserAddress.Builder builder = UserAddress.newBuilder();
-            if (address.has("name")) {
-                builder.setName(address.getString("name"));
-            }
-            if (address.has("address1")) {
-                builder.setAddress1(address.getString("address1"));
-            }
-            if (address.has("address2")) {
-                builder.setAddress2(address.getString("address2"));
-            }
-            if (address.has("locality")) {
-                builder.setLocality(address.getString("locality"));
-            }
-            if (address.has("administrativeArea")) {
-                builder.setAdministrativeArea(address.getString("administrativeArea"));
+            int network = CardNetworks.network(args.opt(5));
+            pushTokenizeRequest = buildPushTokenizeRequest(
+                    readOpaquePaymentCard(args),
+                    args.getString(1),
+                    args.getString(2),
+                    args.getJSONObject(3),
+                    network,
+                    CardNetworks.tokenServiceProvider(args.opt(6), network));
+        } catch (Exception e) {
+            trace.eRedacted("pushTokenize error", e);
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                launchPushTokenize(pushTokenizeRequest, callbackContext);
             }
-            if (address.has("countryCode")) {
-                builder.setCountryCode(address.getString("countryCode"));
+        });
+    }
+
+    /**
+     * Push provisioning of several cards in one flow
+     *
+     * Every card is validated and its request built up front on the calling worker thread, then the
+     * cards are launched one at a time, each after the previous one got its activity result.
+     * Resolves with {type: "result", results} holding one pushTokenize result per card, in order:
+     * {type: "result", tokenId}, {type: "canceled"}, {type: "timeout"} or {type: "error", message | resultCode}.
+     * @param cards JSONArray of {opc, opcEncoding ("utf8" or "base64"), displayName, lastDigits, address, network, tokenServiceProvider}
+     */
+    private void pushTokenizeBatch(JSONArray cards, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        trace.i("pushTokenizeBatch");
+        if (cards == null) {
+            callbackContext.error("cards must be an array");
+            return;
+        }
+        final PushTokenizeBatch batch = new PushTokenizeBatch(callbackContext, new PushTokenizeBatch.Launcher() {
+            @Override
+            public void launch(PushTokenizeRequest request, CallbackContext cardCallback) {
+                launchPushTokenize(request, cardCallback);
             }
-            if (address.has("postalCode")) {
-                builder.setPostalCode(address.getString("postalCode"));
+        });
+        try {
+            for (int i = 0; i < cards.length(); i++) {
+                try {
+                    batch.add(preparePushTokenizeCard(cards.getJSONObject(i)));
+                } catch (Exception e) {
+                    trace.eRedacted("pushTokenizeBatch card error", e);
+                    batch.addFailed(e.getMessage());
+                }
             }
-            if (address.has("phoneNumber")) {
-                builder.setPhoneNumber(address.getString("phoneNumber"));
+        } catch (JSONException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        trace.d("pushTokenizeBatch cards: ", batch.size());
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                batch.launchNext();
             }
+        });
+    }
 
-            UserAddress userAddress = builder.build();
-
-            PushTokenizeRequest pushTokenizeRequest =
-                    new PushTokenizeRequest.Builder()
-                            .setOpaquePaymentCard(opc.getBytes())
-                            .setNetwork(TapAndPay.CARD_NETWORK_VISA)
-                            .setTokenServiceProvider(TapAndPay.TOKEN_PROVIDER_VISA)
-                            .setDisplayName(displayName)
-                            .setLastDigits(lastDigits)
-                            .setUserAddress(userAddress)
-                            .build();
-            
+    /**
+     * Registers callbackContext for an activity result and launches the Google Wallet activity, on the UI thread
+     */
+    private void launchPushTokenize(PushTokenizeRequest pushTokenizeRequest, CallbackContext callbackContext) {
+        if (destroyed) {
+            try {
+                JSONObject value = new JSONObject();
+                value.put("type", "canceled");
+                callbackContext.error(value);
+            } catch (Exception e) {
+                callbackContext.error(e.getMessage());
+            }
+            return;
+        }
+        int requestCode = pendingRequests.register(callbackContext, PUSH_TOKENIZE_TIMEOUT_MS);
+        if (requestCode == -1) {
+            callbackContext.error("Too many pending pushTokenize requests");
+            return;
+        }
+        mainHandler.postDelayed(expirePendingRequests, PUSH_TOKENIZE_TIMEOUT_MS);
+        try {
+            // Cordova keeps a single activity result callback, another plugin may have taken it since the last launch
             cordova.setActivityResultCallback(this);
 
-            tapAndPayClient.pushTokenize(this.cordova.getActivity(), pushTokenizeRequest, REQUEST_CODE_PUSH_TOKENIZE);
+            backend.pushTokenize(this.cordova.getActivity(), pushTokenizeRequest, requestCode);
         } catch (Exception e) {
-            Log.e(TAG, "pushTokenize error", e);
+            trace.eRedacted("pushTokenize error", e);
+            pendingRequests.remove(requestCode);
             callbackContext.error(e.getMessage());
         }
     }
 
+    /**
+     * Builds the PushTokenizeRequest for one card of pushTokenizeBatch
+     */
+    static PushTokenizeRequest preparePushTokenizeCard(JSONObject card) throws JSONException {
+        String opc = card.getString("opc");
+        int network = CardNetworks.network(card.opt("network"));
+        return buildPushTokenizeRequest(
+                OPC_BASE64.equals(card.optString("opcEncoding"))
+                        ? Base64.decode(opc, Base64.DEFAULT)
+                        : opc.getBytes(StandardCharsets.UTF_8),
+                card.getString("displayName"),
+                card.getString("lastDigits"),
+                card.optJSONObject("address") != null ? card.getJSONObject("address") : new JSONObject(),
+                network,
+                CardNetworks.tokenServiceProvider(card.opt("tokenServiceProvider"), network));
+    }
+
+    /**
+     * Reads the Opaque Payment Card argument of pushTokenize
+     *
+     * Binary input (ArrayBuffer or Uint8Array in JS) arrives base64 encoded with the fifth argument
+     * set to "binary" and is decoded straight into bytes. String input is encoded as UTF-8.
+     */
+    static byte[] readOpaquePaymentCard(JSONArray args) throws JSONException {
+        if (OPC_BINARY.equals(args.optString(4))) {
+            return new CordovaArgs(args).getArrayBuffer(0);
+        }
+        return args.getString(0).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Validates the card details and builds the PushTokenizeRequest for pushTokenize
+     * @param address JSONObject containing optional string properties: name, address1, address2, localitiy, administrativeArea, countryCode, postalCode and phoneNumber
+     * @param network TapAndPay.CARD_NETWORK_* constant
+     * @param tokenServiceProvider TapAndPay.TOKEN_PROVIDER_* constant
+     */
+    static PushTokenizeRequest buildPushTokenizeRequest(byte[] opc, String displayName, String lastDigits, JSONObject address,
+            int network, int tokenServiceProvider) throws JSONException {
+        if (opc == null || opc.length == 0) {
+            throw new IllegalArgumentException("opc is required");
+        }
+        if (displayName.isEmpty()) {
+            throw new IllegalArgumentException("displayName is required");
+        }
+        if (lastDigits.isEmpty()) {
+            throw new IllegalArgumentException("lastDigits is required");
+        }
+        UserAddress.Builder builder = UserAddress.newBuilder();
+        if (address.has("name")) {
+            builder.setName(address.getString("name"));
+        }
+        if (address.has("address1")) {
+            builder.setAddress1(address.getString("address1"));
+        }
+        if (address.has("address2")) {
+            builder.setAddress2(address.getString("address2"));
+        }
+        if (address.has("locality")) {
+            builder.setLocality(address.getString("locality"));
+        }
+        if (address.has("administrativeArea")) {
+            builder.setAdministrativeArea(address.getString("administrativeArea"));
+        }
+        if (address.has("countryCode")) {
+            builder.setCountryCode(address.getString("countryCode"));
+        }
+        if (address.has("postalCode")) {
+            builder.setPostalCode(address.getString("postalCode"));
+        }
+        if (address.has("phoneNumber")) {
+            builder.setPhoneNumber(address.getString("phoneNumber"));
+        }
+
+        UserAddress userAddress = builder.build();
+
+        return new PushTokenizeRequest.Builder()
+                .setOpaquePaymentCard(opc)
+                .setNetwork(network)
+                .setTokenServiceProvider(tokenServiceProvider)
+                .setDisplayName(displayName)
+                .setLastDigits(lastDigits)
+                .setUserAddress(userAddress)
+                .build();
+    }
+
+    /**
+     * Rejects pushTokenize callbacks that never got an activity result with {type: "timeout"}
+     */
+    private final Runnable expirePendingRequests = new Runnable() {
+        @Override
+        public void run() {
+            for (CallbackContext callbackContext : pendingRequests.expire()) {
+                trace.e("pushTokenize timed out");
+                try {
+                    JSONObject value = new JSONObject();
+                    value.put("type", "timeout");
+                    callbackContext.error(value);
+                } catch (Exception e) {
+                    callbackContext.error(e.getMessage());
+                }
+            }
+        }
+    };
+
+    /**
+     * Token lookup from the local token index
+     *
+     * Finds the tokens matching every criterion in query by issuerTokenId, fpanLastFour, network
+     * and tokenState without a Play services call. The index is built from the last token list and
+     * rebuilt whenever the token snapshot changes. If it is older than the token cache TTL, was
+     * invalidated with the token cache, or refresh is set, the token list is fetched once first and
+     * the lookup runs against that list even if the index was cleared again meanwhile.
+     * Unlike isCardInWallet it only sees tokens listTokens returns.
+     *
+     * Result: {version, tokens, ambiguous}, ambiguous is true if the fpanLastFour is shared by several tokens
+     * @param query {issuerTokenId?, fpanLastFour?, network?, tokenState?}
+     * @param refresh bypass and refill the token cache before the lookup
+     */
+    private void findTokens(final JSONObject query, boolean refresh, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        if (tokenIndex.isFresh() && !refresh) {
+            try {
+                // Null if the index was cleared since the check, the token list is fetched then
+                JSONObject found = tokenIndex.find(query, null);
+                if (found != null) {
+                    WalletMetrics.completed(callbackContext);
+                    callbackContext.success(found);
+                    return;
+                }
+            } catch (Exception e) {
+                callbackContext.error(e.getMessage());
+                return;
+            }
+        }
+        trace.i("findTokens loading index");
+        cachedListTokensTask(refresh)
+                .addOnCompleteListener(
+                        new OnCompleteListener<JSONArray>() {
+                            @Override
+                            public void onComplete(@NonNull Task<JSONArray> task) {
+                                WalletMetrics.completed(callbackContext);
+                                if (!task.isSuccessful()) {
+                                    sendApiError("findTokens", task.getException(), callbackContext);
+                                    return;
+                                }
+                                try {
+                                    callbackContext.success(tokenIndex.find(query, task.getResult()));
+                                } catch (Exception e) {
+                                    callbackContext.error(e.getMessage());
+                                }
+                            }
+                        });
+    }
+
     /**
      * Card lookup by last 4 FPAN digits
      * Please note this endpoint can return false positives since the last four FPAN digits are not necessarily unique among tokens.
+     * findTokens answers from the local token list instead and reports ambiguous last four digits.
      * @param indentifier last 4 FPAN (Last 4 card digits)
      * 
      * https://developers.google.com/pay/issuers/apis/push-provisioning/android/reading-wallet?authuser=2#istokenized
      */
     private void isCardInWallet(String identifier, CallbackContext callbackContext) {
-        IsTokenizedRequest request = new IsTokenizedRequest.Builder()
-        .setIdentifier(identifier)
-        .setNetwork(TapAndPay.CARD_NETWORK_VISA)
-        .setTokenServiceProvider(TapAndPay.TOKEN_PROVIDER_VISA)
-        .build();
-        tapAndPayClient
-        .isTokenized(request)
+        WalletMetrics.started(callbackContext);
+        isTokenizedTask(identifier)
         .addOnCompleteListener(
             new OnCompleteListener<Boolean>() {
                 @Override
                 public void onComplete(@NonNull Task<Boolean> task) {
+                    WalletMetrics.completed(callbackContext);
                 if (task.isSuccessful()) {
                     if (task.getResult()) {
-                        Log.d(TAG, "Found a token with last four digits " + identifier + ".");
+                        trace.d("isCardInWallet found a token");
                         try {
                             JSONObject value = new JSONObject();
                             value.put("result", "token found");
@@ -362,57 +829,456 @@ public class GoogleWallet extends CordovaPlugin {
                         }
                     }
                 } else {
-                    ApiException apiException = (ApiException) task.getException();
-                    String message = apiException.getMessage();
-                    int statusCode = apiException.getStatusCode();
-                    Log.i(TAG, "listTokens onComplete " + Integer.toString(statusCode));
+                    sendApiError("isCardInWallet", task.getException(), callbackContext);
+                }
+            }
+            });
+    }
+
+    /**
+     * Batched card lookup by last 4 FPAN digits
+     *
+     * Starts one isTokenized task per distinct identifier in parallel and resolves once all of them
+     * have completed. The result maps each identifier to either {result} as returned by isCardInWallet
+     * or {message, statusCode} if the lookup for that identifier failed.
+     * Same false positive caveat as isCardInWallet applies.
+     * @param identifiers JSONArray of last 4 FPAN
+     */
+    private void isCardsInWallet(JSONArray identifiers, CallbackContext callbackContext) throws JSONException {
+        WalletMetrics.started(callbackContext);
+        final Map<String, Task<Boolean>> tasks = new LinkedHashMap<String, Task<Boolean>>();
+        for (int i = 0; i < identifiers.length(); i++) {
+            String identifier = identifiers.getString(i);
+            if (!tasks.containsKey(identifier)) {
+                tasks.put(identifier, isTokenizedTask(identifier));
+            }
+        }
+        Tasks.whenAllComplete(tasks.values())
+        .addOnCompleteListener(
+            new OnCompleteListener<List<Task<?>>>() {
+                @Override
+                public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                    WalletMetrics.completed(callbackContext);
                     try {
                         JSONObject value = new JSONObject();
-                        value.put("message", message);
-                        value.put("statusCode", statusCode);
-                        callbackContext.error(value);
+                        for (Map.Entry<String, Task<Boolean>> entry : tasks.entrySet()) {
+                            value.put(entry.getKey(), isTokenizedValue(entry.getValue()));
+                        }
+                        callbackContext.success(value);
                     } catch (Exception e) {
                         callbackContext.error(e.getMessage());
                     }
                 }
+            });
+    }
+
+    /**
+     * Wallet state in one round-trip
+     *
+     * Starts getActiveWalletId, listTokens and one isTokenized per identifier in parallel and
+     * resolves once with all of them. A failing part does not fail the whole call, its value is
+     * null and the failure is reported under errors instead.
+     *
+     * Result: {walletId, tokens, cards: {identifier: {result} | {message, statusCode}}, errors: {walletId?, tokens?}}
+     * @param identifiers JSONArray of last 4 FPAN to look up
+     * @param refresh bypass and refill the token cache
+     */
+    private void getWalletState(JSONArray identifiers, boolean refresh, CallbackContext callbackContext) throws JSONException {
+        WalletMetrics.started(callbackContext);
+        trace.i("getWalletState");
+        final Task<String> walletIdTask = activeWalletIdTask();
+        final Task<JSONArray> tokensTask = cachedListTokensTask(refresh);
+        final Map<String, Task<Boolean>> cardTasks = new LinkedHashMap<String, Task<Boolean>>();
+        for (int i = 0; i < identifiers.length(); i++) {
+            String identifier = identifiers.getString(i);
+            if (!cardTasks.containsKey(identifier)) {
+                cardTasks.put(identifier, isTokenizedTask(identifier));
             }
+        }
+        List<Task<?>> tasks = new ArrayList<Task<?>>(cardTasks.values());
+        tasks.add(walletIdTask);
+        tasks.add(tokensTask);
+        Tasks.whenAllComplete(tasks)
+        .addOnCompleteListener(
+            new OnCompleteListener<List<Task<?>>>() {
+                @Override
+                public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                    WalletMetrics.completed(callbackContext);
+                    try {
+                        JSONObject value = new JSONObject();
+                        JSONObject errors = new JSONObject();
+                        if (walletIdTask.isSuccessful()) {
+                            value.put("walletId", walletIdTask.getResult());
+                        } else {
+                            value.put("walletId", JSONObject.NULL);
+                            errors.put("walletId", errorValue(walletIdTask.getException()));
+                        }
+                        if (tokensTask.isSuccessful()) {
+                            value.put("tokens", tokensTask.getResult());
+                        } else {
+                            value.put("tokens", JSONObject.NULL);
+                            errors.put("tokens", errorValue(tokensTask.getException()));
+                        }
+                        JSONObject cards = new JSONObject();
+                        for (Map.Entry<String, Task<Boolean>> entry : cardTasks.entrySet()) {
+                            cards.put(entry.getKey(), isTokenizedValue(entry.getValue()));
+                        }
+                        value.put("cards", cards);
+                        value.put("errors", errors);
+                        callbackContext.success(value);
+                    } catch (Exception e) {
+                        callbackContext.error(e.getMessage());
+                    }
+                }
             });
     }
 
+    /**
+     * Stale-while-revalidate wallet state
+     *
+     * Immediately sends {type: "cached", walletId, savedAt, tokens} from the encrypted on-disk snapshot
+     * (tokens only hold issuerTokenId, fpanLastFour, tokenState and network, all null if there is no
+     * snapshot or GoogleWalletPersistentSnapshot is off). Then fetches the active wallet ID and token
+     * list, stores the new snapshot and finishes with {type: "revalidated", changed, walletId, tokens}.
+     * The snapshot is dropped if the active wallet ID changed or there is no active wallet anymore.
+     */
+    private void getCachedWalletState(CallbackContext callbackContext) {
+        // The cached result is sent right away, the revalidated one is what the call waits on
+        WalletMetrics.untilFinalResult(callbackContext);
+        WalletMetrics.started(callbackContext);
+        trace.i("getCachedWalletState");
+        final JSONObject cached = walletStateStore != null ? walletStateStore.load() : null;
+        try {
+            JSONObject value = new JSONObject();
+            value.put("type", "cached");
+            value.put("walletId", cached != null ? cached.opt("walletId") : JSONObject.NULL);
+            value.put("savedAt", cached != null ? cached.opt("savedAt") : JSONObject.NULL);
+            value.put("tokens", cached != null ? cached.opt("tokens") : JSONObject.NULL);
+            PluginResult result = new PluginResult(PluginResult.Status.OK, value);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        } catch (Exception e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
+        final Task<String> walletIdTask = activeWalletIdTask();
+        final Task<JSONArray> tokensTask = cachedListTokensTask(false);
+        // Completes on the dispatcher's worker, the snapshot is read and written from there
+        Tasks.whenAllComplete(walletIdTask, tokensTask)
+        .addOnCompleteListener(
+            dispatcher.background,
+            new OnCompleteListener<List<Task<?>>>() {
+                @Override
+                public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                    WalletMetrics.completed(callbackContext);
+                    try {
+                        callbackContext.success(revalidateWalletState(cached, walletIdTask, tokensTask));
+                    } catch (Exception e) {
+                        callbackContext.error(e.getMessage());
+                    }
+                }
+            });
+    }
+
+    private JSONObject revalidateWalletState(JSONObject cached, Task<String> walletIdTask, Task<JSONArray> tokensTask) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("type", "revalidated");
+        String cachedWalletId = cached != null ? cached.optString("walletId", null) : null;
+        if (!walletIdTask.isSuccessful()) {
+            JSONObject error = errorValue(walletIdTask.getException());
+            boolean noWallet = error.getInt("statusCode") == TAP_AND_PAY_NO_ACTIVE_WALLET;
+            if (noWallet && walletStateStore != null) {
+                walletStateStore.clear();
+            }
+            value.put("changed", noWallet && cached != null);
+            value.put("walletId", JSONObject.NULL);
+            value.put("tokens", JSONObject.NULL);
+            value.put("error", error);
+            return value;
+        }
+        String walletId = walletIdTask.getResult();
+        boolean walletChanged = cached != null && !walletId.equals(cachedWalletId);
+        if (walletChanged && walletStateStore != null) {
+            walletStateStore.clear();
+        }
+        value.put("walletId", walletId);
+        if (!tokensTask.isSuccessful()) {
+            value.put("changed", walletChanged);
+            value.put("tokens", JSONObject.NULL);
+            value.put("error", errorValue(tokensTask.getException()));
+            return value;
+        }
+        JSONArray tokens = tokensTask.getResult();
+        JSONArray cachedTokens = cached != null ? cached.optJSONArray("tokens") : null;
+        boolean changed = cached == null || walletChanged || cachedTokens == null
+                || !WalletStateStore.strip(tokens).toString().equals(cachedTokens.toString());
+        if (changed && walletStateStore != null) {
+            walletStateStore.save(walletId, tokens);
+        }
+        value.put("changed", changed);
+        value.put("tokens", tokens);
+        return value;
+    }
+
+    /**
+     * Wallet change events
+     *
+     * Registers a TapAndPay.DataChangedListener and keeps callbackContext open. Bursts of
+     * onDataChanged callbacks are debounced into one refresh of the token list, and a
+     * {type: "changed", added, removed, changed, coalesced} event is sent if the tokens differ
+     * from the last list sent to this subscriber. Only one subscriber is kept, a new
+     * subscription ends the previous one.
+     *
+     * The listener is removed while the app is paused and the token list is checked again on resume.
+     * @param debounceMs quiet period after the last onDataChanged before the token list is refreshed
+     */
+    private void subscribeWalletChanges(long debounceMs, CallbackContext callbackContext) {
+        WalletMetrics.started(callbackContext);
+        trace.i("subscribeWalletChanges");
+        unsubscribeWalletChanges();
+        walletChangesCallback = callbackContext;
+        walletChangesDebounceMs = debounceMs;
+        walletChangesTokens = null;
+        registerWalletChangesListener();
+        cachedListTokensTask(false)
+                .addOnCompleteListener(
+                        new OnCompleteListener<JSONArray>() {
+                            @Override
+                            public void onComplete(@NonNull Task<JSONArray> task) {
+                                WalletMetrics.completed(callbackContext);
+                                if (walletChangesCallback != callbackContext) {
+                                    return;
+                                }
+                                if (task.isSuccessful() && walletChangesTokens == null) {
+                                    walletChangesTokens = task.getResult();
+                                }
+                                try {
+                                    JSONObject value = new JSONObject();
+                                    value.put("type", "subscribed");
+                                    sendWalletChangesEvent(value);
+                                } catch (Exception e) {
+                                    trace.e("subscribeWalletChanges JSON exception", e);
+                                }
+                            }
+                        });
+    }
+
+    private void unsubscribeWalletChanges() {
+        unregisterWalletChangesListener();
+        mainHandler.removeCallbacks(walletChangesRefresh);
+        walletChangesPending = 0;
+        if (walletChangesCallback != null) {
+            walletChangesCallback.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            walletChangesCallback = null;
+        }
+        walletChangesTokens = null;
+    }
+
+    private void registerWalletChangesListener() {
+        if (!walletChangesListening) {
+            backend.registerDataChangedListener(dataChangedListener);
+            walletChangesListening = true;
+        }
+    }
+
+    private void unregisterWalletChangesListener() {
+        if (walletChangesListening) {
+            backend.removeDataChangedListener(dataChangedListener);
+            walletChangesListening = false;
+        }
+    }
+
+    private void scheduleWalletChangesRefresh() {
+        walletChangesPending++;
+        mainHandler.removeCallbacks(walletChangesRefresh);
+        mainHandler.postDelayed(walletChangesRefresh, walletChangesDebounceMs);
+    }
+
+    private final TapAndPay.DataChangedListener dataChangedListener = new TapAndPay.DataChangedListener() {
+        @Override
+        public void onDataChanged() {
+            trace.i("onDataChanged");
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleWalletChangesRefresh();
+                }
+            });
+        }
+    };
+
+    private final Runnable walletChangesRefresh = new Runnable() {
+        @Override
+        public void run() {
+            final CallbackContext subscriber = walletChangesCallback;
+            if (subscriber == null) {
+                return;
+            }
+            final int coalesced = walletChangesPending;
+            walletChangesPending = 0;
+            cachedListTokensTask(true)
+                    .addOnCompleteListener(
+                            new OnCompleteListener<JSONArray>() {
+                                @Override
+                                public void onComplete(@NonNull Task<JSONArray> task) {
+                                    if (walletChangesCallback != subscriber) {
+                                        return;
+                                    }
+                                    try {
+                                        JSONObject value;
+                                        if (task.isSuccessful()) {
+                                            TokenDiff diff = TokenDiff.between(walletChangesTokens, task.getResult());
+                                            walletChangesTokens = task.getResult();
+                                            if (diff.isEmpty()) {
+                                                return;
+                                            }
+                                            value = diff.toJSON();
+                                            value.put("type", "changed");
+                                        } else {
+                                            value = errorValue(task.getException());
+                                            value.put("type", "error");
+                                        }
+                                        value.put("coalesced", coalesced);
+                                        sendWalletChangesEvent(value);
+                                    } catch (Exception e) {
+                                        trace.e("walletChanges JSON exception", e);
+                                    }
+                                }
+                            });
+        }
+    };
+
+    private void sendWalletChangesEvent(JSONObject value) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, value);
+        result.setKeepCallback(true);
+        walletChangesCallback.sendPluginResult(result);
+    }
+
+    /**
+     * {message, statusCode} for the exception of a failed Play services task
+     */
+    private static JSONObject errorValue(Exception exception) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("message", exception != null ? exception.getMessage() : "Unknown error");
+        value.put("statusCode", exception instanceof ApiException ? ((ApiException) exception).getStatusCode() : 0);
+        return value;
+    }
+
+    /**
+     * JSON value of a completed isTokenized task, {result} on success and {message, statusCode} on failure
+     */
+    private static JSONObject isTokenizedValue(Task<Boolean> task) throws JSONException {
+        if (!task.isSuccessful()) {
+            return errorValue(task.getException());
+        }
+        JSONObject value = new JSONObject();
+        value.put("result", task.getResult() ? "token found" : "token not found");
+        return value;
+    }
+
+    /**
+     * Shared isTokenized task for one identifier
+     */
+    private Task<Boolean> isTokenizedTask(String identifier) {
+        return inFlightTasks.join("isCardInWallet:" + identifier, new InFlightTasks.Starter<Boolean>() {
+            @Override
+            public Task<Boolean> start() {
+                return backend.isTokenized(identifier, TapAndPay.CARD_NETWORK_VISA, TapAndPay.TOKEN_PROVIDER_VISA);
+            }
+        });
+    }
+
+    /**
+     * Rejects callbackContext with the message and status code of a failed Play services task
+     */
+    private void sendApiError(String method, Exception exception, CallbackContext callbackContext) {
+        try {
+            JSONObject value = errorValue(exception);
+            trace.i(method, " onComplete ", value.getInt("statusCode"));
+            WalletMetrics.statusCode(callbackContext, value.getInt("statusCode"));
+            callbackContext.error(value);
+        } catch (Exception e) {
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    @Override
+    public void onPause(boolean multitasking) {
+        super.onPause(multitasking);
+        unregisterWalletChangesListener();
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        super.onResume(multitasking);
+        if (walletChangesCallback != null) {
+            registerWalletChangesListener();
+            // Changes made while paused were not reported by the listener
+            scheduleWalletChangesRefresh();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        destroyed = true;
+        unregisterWalletChangesListener();
+        mainHandler.removeCallbacks(walletChangesRefresh);
+        mainHandler.removeCallbacks(expirePendingRequests);
+        walletChangesCallback = null;
+        for (CallbackContext callbackContext : pendingRequests.clear()) {
+            try {
+                JSONObject value = new JSONObject();
+                value.put("type", "canceled");
+                callbackContext.error(value);
+            } catch (Exception e) {
+                callbackContext.error(e.getMessage());
+            }
+        }
+        dispatcher.shutdown();
+        super.onDestroy();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
-        Log.i(TAG, "onActivityResult resultCode: " + resultCode + ", requestCode: " + requestCode);
+        trace.i("onActivityResult resultCode: ", resultCode);
         super.onActivityResult(requestCode, resultCode, data);
         // Push provisioning
-        if (requestCode == REQUEST_CODE_PUSH_TOKENIZE) {
+        if (pendingRequests.owns(requestCode)) {
+            CallbackContext callbackContext = pendingRequests.remove(requestCode);
+            if (callbackContext == null) {
+                trace.e("onActivityResult no pending request for requestCode: ", requestCode);
+                return;
+            }
+            WalletMetrics.completed(callbackContext);
             if (resultCode == RESULT_CANCELED) {
                 // The user canceled the request.
                 try {
                     JSONObject value = new JSONObject();
                     value.put("type", "canceled");
-                    Log.e(TAG, "onActivityResult error RESULT_CANCELED");
+                    trace.e("onActivityResult error RESULT_CANCELED");
                     callbackContext.error(value);
                 } catch (Exception e) {
-                    Log.e(TAG, "onActivityResult error RESULT_CANCELED JSON exception", e);
+                    trace.e("onActivityResult error RESULT_CANCELED JSON exception", e);
                     callbackContext.error(e.getMessage());
                 }
                 return;
             } else if (resultCode == RESULT_OK) {
                 // The action succeeded.
+                invalidateTokens();
                 String tokenId = data.getStringExtra(TapAndPay.EXTRA_ISSUER_TOKEN_ID);
                 try {
                     JSONObject value = new JSONObject();
                     value.put("type", "result");
                     value.put("tokenId", tokenId);
-                    Log.i(TAG, "onActivityResult ok tokenId:" + tokenId);
+                    trace.i("onActivityResult ok");
                     callbackContext.success(value);
                 } catch (Exception e) {
-                    Log.e(TAG, "onActivityResult error RESULT_OK JSON exception", e);
+                    trace.e("onActivityResult error RESULT_OK JSON exception", e);
                     callbackContext.error(e.getMessage());
                 }
                 return;
             } else {
-                Log.e(TAG, "onActivityResult error unknown resultCode: " + Integer.toString(resultCode));
+                trace.e("onActivityResult error unknown resultCode: ", resultCode);
                 callbackContext.error(resultCode);
             }
         }
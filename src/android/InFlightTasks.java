@@ -0,0 +1,48 @@
+package com.landsbankinn;
+
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-flight registry of pending Play services tasks
+ *
+ * Identical read requests that arrive while a matching task is still running attach to
+ * that task instead of starting a new IPC. Every caller adds its own completion listener,
+ * so all of them receive the same result or error.
+ */
+class InFlightTasks {
+    interface Starter<T> {
+        Task<T> start();
+    }
+
+    private final Map<String, Task<?>> pending = new HashMap<String, Task<?>>();
+
+    /**
+     * Returns the pending task for key, or starts a new one with starter
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> Task<T> join(final String key, Starter<T> starter) {
+        Task<?> existing = pending.get(key);
+        if (existing != null) {
+            return (Task<T>) existing;
+        }
+        final Task<T> task = starter.start();
+        pending.put(key, task);
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> completed) {
+                remove(key, completed);
+            }
+        });
+        return task;
+    }
+
+    private synchronized void remove(String key, Task<?> task) {
+        if (pending.get(key) == task) {
+            pending.remove(key);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.landsbankinn;
+
+import android.os.SystemClock;
+import org.apache.cordova.CallbackContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of callbacks waiting for an activity result
+ *
+ * Every push tokenize launch gets its own request code from a fixed range, and onActivityResult
+ * resolves exactly the callback registered under the code it receives. Read calls never touch
+ * the registry, so they can run while a provisioning flow is open.
+ *
+ * Entries that never get a result (the activity was lost, the result went elsewhere) are removed
+ * by expire once their deadline has passed.
+ */
+class PendingRequests {
+    private static class Pending {
+        final CallbackContext callbackContext;
+        final long deadline;
+
+        Pending(CallbackContext callbackContext, long deadline) {
+            this.callbackContext = callbackContext;
+            this.deadline = deadline;
+        }
+    }
+
+    private final int firstRequestCode;
+    private final int size;
+    private final Map<Integer, Pending> pending = new HashMap<Integer, Pending>();
+    private int next;
+
+    /**
+     * @param firstRequestCode lowest request code handed out
+     * @param size number of request codes in the range, also the maximum number of pending requests
+     */
+    PendingRequests(int firstRequestCode, int size) {
+        this.firstRequestCode = firstRequestCode;
+        this.size = size;
+    }
+
+    /**
+     * Allocates a request code for callbackContext
+     * @return the request code, or -1 if every code in the range is in use
+     */
+    synchronized int register(CallbackContext callbackContext, long timeoutMillis) {
+        for (int i = 0; i < size; i++) {
+            int requestCode = firstRequestCode + (next + i) % size;
+            if (!pending.containsKey(requestCode)) {
+                next = (next + i + 1) % size;
+                pending.put(requestCode, new Pending(callbackContext, SystemClock.elapsedRealtime() + timeoutMillis));
+                return requestCode;
+            }
+        }
+        return -1;
+    }
+
+    boolean owns(int requestCode) {
+        return requestCode >= firstRequestCode && requestCode < firstRequestCode + size;
+    }
+
+    /**
+     * Removes and returns the callback registered under requestCode, or null if there is none
+     */
+    synchronized CallbackContext remove(int requestCode) {
+        Pending entry = pending.remove(requestCode);
+        return entry != null ? entry.callbackContext : null;
+    }
+
+    /**
+     * Removes and returns the callbacks whose deadline has passed
+     */
+    synchronized List<CallbackContext> expire() {
+        long now = SystemClock.elapsedRealtime();
+        List<CallbackContext> expired = new ArrayList<CallbackContext>();
+        Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending entry = iterator.next();
+            if (entry.deadline <= now) {
+                expired.add(entry.callbackContext);
+                iterator.remove();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Removes and returns every pending callback
+     */
+    synchronized List<CallbackContext> clear() {
+        List<CallbackContext> all = new ArrayList<CallbackContext>();
+        for (Pending entry : pending.values()) {
+            all.add(entry.callbackContext);
+        }
+        pending.clear();
+        return all;
+    }
+}
@@ -0,0 +1,79 @@
+package com.landsbankinn;
+
+import android.app.Activity;
+import androidx.annotation.NonNull;
+import com.google.android.gms.tapandpay.TapAndPay;
+import com.google.android.gms.tapandpay.TapAndPayClient;
+import com.google.android.gms.tapandpay.issuer.IsTokenizedRequest;
+import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
+import com.google.android.gms.tapandpay.issuer.TokenInfo;
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TapAndPayBackend backed by the Play services TapAndPayClient
+ */
+class PlayServicesBackend implements TapAndPayBackend {
+    private final TapAndPayClient tapAndPayClient;
+
+    PlayServicesBackend(TapAndPayClient tapAndPayClient) {
+        this.tapAndPayClient = tapAndPayClient;
+    }
+
+    @Override
+    public Task<String> getActiveWalletId() {
+        return tapAndPayClient.getActiveWalletId();
+    }
+
+    @Override
+    public Task<String> getStableHardwareId() {
+        return tapAndPayClient.getStableHardwareId();
+    }
+
+    @Override
+    public Task<List<WalletToken>> listTokens() {
+        return tapAndPayClient
+                .listTokens()
+                .continueWith(
+                        new Continuation<List<TokenInfo>, List<WalletToken>>() {
+                            @Override
+                            public List<WalletToken> then(@NonNull Task<List<TokenInfo>> task) throws Exception {
+                                if (!task.isSuccessful()) {
+                                    throw task.getException();
+                                }
+                                List<WalletToken> tokens = new ArrayList<WalletToken>(task.getResult().size());
+                                for (TokenInfo token : task.getResult()) {
+                                    tokens.add(WalletToken.from(token));
+                                }
+                                return tokens;
+                            }
+                        });
+    }
+
+    @Override
+    public Task<Boolean> isTokenized(String identifier, int network, int tokenServiceProvider) {
+        IsTokenizedRequest request = new IsTokenizedRequest.Builder()
+                .setIdentifier(identifier)
+                .setNetwork(network)
+                .setTokenServiceProvider(tokenServiceProvider)
+                .build();
+        return tapAndPayClient.isTokenized(request);
+    }
+
+    @Override
+    public void pushTokenize(Activity activity, PushTokenizeRequest request, int requestCode) {
+        tapAndPayClient.pushTokenize(activity, request, requestCode);
+    }
+
+    @Override
+    public void registerDataChangedListener(TapAndPay.DataChangedListener listener) {
+        tapAndPayClient.registerDataChangedListener(listener);
+    }
+
+    @Override
+    public void removeDataChangedListener(TapAndPay.DataChangedListener listener) {
+        tapAndPayClient.removeDataChangedListener(listener);
+    }
+}
@@ -0,0 +1,77 @@
+package com.landsbankinn;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+
+/**
+ * Short-lived holder for a task started ahead of the first JS call
+ *
+ * The first caller takes the task, whether it is still pending or already complete, as long as it
+ * completed less than holdMillis ago. A prefetch that failed is never handed out, so a transient
+ * error at startup does not become the result of the first real call. Later callers and callers after expiry get null and start
+ * their own request. Timings are kept so the benefit can be checked through getPrefetchStats.
+ */
+class Prefetch<T> {
+    private final long holdMillis;
+    private Task<T> task;
+    private long startedAt;
+    private long completedAt;
+    private long takenAt;
+    private boolean takenWhilePending;
+    private boolean successful;
+
+    Prefetch(long holdMillis) {
+        this.holdMillis = holdMillis;
+    }
+
+    synchronized void start(Task<T> task) {
+        this.task = task;
+        this.startedAt = SystemClock.elapsedRealtime();
+        task.addOnCompleteListener(new OnCompleteListener<T>() {
+            @Override
+            public void onComplete(@NonNull Task<T> completed) {
+                completed(completed.isSuccessful());
+            }
+        });
+    }
+
+    private synchronized void completed(boolean successful) {
+        this.completedAt = SystemClock.elapsedRealtime();
+        this.successful = successful;
+    }
+
+    /**
+     * Returns the prefetched task once, or null if there is none, it was already taken, it failed or it expired
+     */
+    synchronized Task<T> take() {
+        if (task == null || takenAt != 0) {
+            return null;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (completedAt != 0 && (!successful || now - completedAt > holdMillis)) {
+            return null;
+        }
+        takenAt = now;
+        takenWhilePending = completedAt == 0;
+        return task;
+    }
+
+    synchronized JSONObject stats() throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("started", task != null);
+        if (task == null) {
+            return value;
+        }
+        value.put("durationMs", completedAt != 0 ? completedAt - startedAt : JSONObject.NULL);
+        value.put("successful", completedAt != 0 ? successful : JSONObject.NULL);
+        value.put("taken", takenAt != 0);
+        value.put("takenAfterMs", takenAt != 0 ? takenAt - startedAt : JSONObject.NULL);
+        value.put("takenWhilePending", takenWhilePending);
+        value.put("expired", takenAt == 0 && completedAt != 0 && SystemClock.elapsedRealtime() - completedAt > holdMillis);
+        return value;
+    }
+}
@@ -0,0 +1,134 @@
+package com.landsbankinn;
+
+import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several push tokenize requests launched one after another
+ *
+ * Every card is prepared before the first launch, cards that fail preparation get an error result
+ * and are skipped. Each launch gets a CardCallback that stands in for a pushTokenize callback, so
+ * activity results, timeouts and cancellation go through the same paths as for a single card. When
+ * a card has its result the next card is launched, and once every card has one the batch resolves
+ * with {type: "result", results} in card order.
+ *
+ * Launching and results happen on the UI thread.
+ */
+final class PushTokenizeBatch {
+    interface Launcher {
+        void launch(PushTokenizeRequest request, CallbackContext callbackContext);
+    }
+
+    private final CallbackContext callbackContext;
+    private final Launcher launcher;
+    // Null for cards that failed preparation
+    private final List<PushTokenizeRequest> requests = new ArrayList<PushTokenizeRequest>();
+    private final List<JSONObject> results = new ArrayList<JSONObject>();
+    private int next;
+
+    PushTokenizeBatch(CallbackContext callbackContext, Launcher launcher) {
+        this.callbackContext = callbackContext;
+        this.launcher = launcher;
+    }
+
+    void add(PushTokenizeRequest request) {
+        requests.add(request);
+        results.add(null);
+    }
+
+    void addFailed(String message) throws JSONException {
+        requests.add(null);
+        results.add(errorResult(message));
+    }
+
+    int size() {
+        return requests.size();
+    }
+
+    /**
+     * Launches the next card that was prepared, or resolves the batch if there is none
+     */
+    void launchNext() {
+        while (next < requests.size()) {
+            int index = next++;
+            PushTokenizeRequest request = requests.get(index);
+            if (request != null) {
+                requests.set(index, null);
+                launcher.launch(request, new CardCallback(index));
+                return;
+            }
+        }
+        JSONArray value = new JSONArray();
+        for (JSONObject result : results) {
+            value.put(result);
+        }
+        try {
+            JSONObject batch = new JSONObject();
+            batch.put("type", "result");
+            batch.put("results", value);
+            callbackContext.success(batch);
+        } catch (JSONException e) {
+            callbackContext.error(e.getMessage());
+        }
+    }
+
+    private void completed(int index, JSONObject result) {
+        results.set(index, result);
+        launchNext();
+    }
+
+    private static JSONObject errorResult(String message) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("type", "error");
+        value.put("message", message);
+        return value;
+    }
+
+    /**
+     * Callback of one card, takes the result the pushTokenize callback would have been given
+     */
+    private final class CardCallback extends CallbackContext {
+        private final int index;
+
+        CardCallback(int index) {
+            super(callbackContext.getCallbackId(), null);
+            this.index = index;
+        }
+
+        @Override
+        public void success(JSONObject message) {
+            completed(index, message);
+        }
+
+        @Override
+        public void error(JSONObject message) {
+            completed(index, message);
+        }
+
+        @Override
+        public void error(String message) {
+            try {
+                completed(index, errorResult(message));
+            } catch (JSONException e) {
+                completed(index, new JSONObject());
+            }
+        }
+
+        @Override
+        public void error(int resultCode) {
+            try {
+                JSONObject value = new JSONObject();
+                value.put("type", "error");
+                value.put("resultCode", resultCode);
+                completed(index, value);
+            } catch (JSONException e) {
+                completed(index, new JSONObject());
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.landsbankinn;
+
+import android.app.Activity;
+import com.google.android.gms.tapandpay.TapAndPay;
+import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
+import com.google.android.gms.tasks.Task;
+import java.util.List;
+
+/**
+ * The TapAndPayClient calls the plugin makes
+ *
+ * PlayServicesBackend is the production implementation. Keeping the plugin behind this interface
+ * lets its own overhead (dispatch, thread hops, JSON building) be measured against a fake.
+ */
+interface TapAndPayBackend {
+    Task<String> getActiveWalletId();
+
+    Task<String> getStableHardwareId();
+
+    Task<List<WalletToken>> listTokens();
+
+    Task<Boolean> isTokenized(String identifier, int network, int tokenServiceProvider);
+
+    void pushTokenize(Activity activity, PushTokenizeRequest request, int requestCode);
+
+    void registerDataChangedListener(TapAndPay.DataChangedListener listener);
+
+    void removeDataChangedListener(TapAndPay.DataChangedListener listener);
+}
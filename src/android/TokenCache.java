@@ -0,0 +1,80 @@
+package com.landsbankinn;
+
+import android.os.SystemClock;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * In-memory cache of the last listTokens result
+ *
+ * Holds the serialized JSONArray of the last token list returned by TapAndPayBackend.listTokens(),
+ * so repeated listTokens calls within the TTL skip both the Play services round-trip and the
+ * JSON building.
+ *
+ * The cache is tied to the wallet ID it was filled under and is dropped as soon as a
+ * different wallet ID (or no active wallet) is observed.
+ */
+class TokenCache {
+    private final long ttlMillis;
+    private JSONArray serialized;
+    private long storedAt;
+    private String walletId;
+    private boolean walletIdKnown;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param ttlMillis how long a snapshot stays valid, 0 disables the cache
+     */
+    TokenCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached serialized token list, or null if the cache is empty or expired
+     */
+    synchronized JSONArray get() {
+        if (serialized != null && SystemClock.elapsedRealtime() - storedAt < ttlMillis) {
+            hits++;
+            return serialized;
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(JSONArray serialized) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        this.serialized = serialized;
+        this.storedAt = SystemClock.elapsedRealtime();
+    }
+
+    synchronized void invalidate() {
+        serialized = null;
+    }
+
+    /**
+     * Records the active wallet ID, dropping the cached snapshot if it changed.
+     * @param walletId the active wallet ID, or null if there is no active wallet
+     * @return true if a different wallet ID was seen before
+     */
+    synchronized boolean onWalletId(String walletId) {
+        boolean changed = walletIdKnown && (walletId == null ? this.walletId != null : !walletId.equals(this.walletId));
+        if (changed) {
+            invalidate();
+        }
+        this.walletId = walletId;
+        this.walletIdKnown = true;
+        return changed;
+    }
+
+    synchronized JSONObject stats() throws Exception {
+        JSONObject value = new JSONObject();
+        value.put("hits", hits);
+        value.put("misses", misses);
+        value.put("ttl", ttlMillis);
+        value.put("cached", serialized != null && SystemClock.elapsedRealtime() - storedAt < ttlMillis);
+        return value;
+    }
+}
@@ -0,0 +1,59 @@
+package com.landsbankinn;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Difference between two serialized token lists, keyed by issuerTokenId
+ *
+ * added and changed hold the full token as returned by listTokens,
+ * removed holds only the issuerTokenId of tokens that are gone.
+ */
+class TokenDiff {
+    final JSONArray added = new JSONArray();
+    final JSONArray removed = new JSONArray();
+    final JSONArray changed = new JSONArray();
+
+    /**
+     * @param previous token list the client already has, null if it has none
+     * @param current latest token list
+     */
+    static TokenDiff between(JSONArray previous, JSONArray current) throws JSONException {
+        TokenDiff diff = new TokenDiff();
+        Map<String, JSONObject> before = new HashMap<String, JSONObject>();
+        if (previous != null) {
+            for (int i = 0; i < previous.length(); i++) {
+                JSONObject token = previous.getJSONObject(i);
+                before.put(token.optString("issuerTokenId"), token);
+            }
+        }
+        for (int i = 0; i < current.length(); i++) {
+            JSONObject token = current.getJSONObject(i);
+            JSONObject old = before.remove(token.optString("issuerTokenId"));
+            if (old == null) {
+                diff.added.put(token);
+            } else if (!old.toString().equals(token.toString())) {
+                diff.changed.put(token);
+            }
+        }
+        for (String issuerTokenId : before.keySet()) {
+            diff.removed.put(issuerTokenId);
+        }
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return added.length() == 0 && removed.length() == 0 && changed.length() == 0;
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("added", added);
+        value.put("removed", removed);
+        value.put("changed", changed);
+        return value;
+    }
+}
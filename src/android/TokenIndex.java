@@ -0,0 +1,167 @@
+package com.landsbankinn;
+
+import android.os.SystemClock;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lookup tables over the last token list, for findTokens
+ *
+ * Built from the listTokens result each time the token snapshot version changes, and swapped in
+ * as a whole, so lookups never lock and never see a half-built index. Tokens are indexed by
+ * issuerTokenId, fpanLastFour, network and tokenState. Last four digits are not unique, a
+ * last four that maps to more than one token is reported as ambiguous.
+ *
+ * Like the token cache, the index is only served for ttlMillis after the token list it was built
+ * from was fetched, and it is cleared wherever the token cache is invalidated.
+ */
+final class TokenIndex {
+    private static final List<JSONObject> NONE = Collections.emptyList();
+
+    private static final class Index {
+        // Snapshot version, 0 for a one-off index over a list that never made it into the snapshot
+        final long version;
+        final Map<String, JSONObject> byIssuerTokenId = new HashMap<String, JSONObject>();
+        final Map<String, List<JSONObject>> byFpanLastFour = new HashMap<String, List<JSONObject>>();
+        final Map<Integer, List<JSONObject>> byNetwork = new HashMap<Integer, List<JSONObject>>();
+        final Map<Integer, List<JSONObject>> byTokenState = new HashMap<Integer, List<JSONObject>>();
+        final List<JSONObject> all = new ArrayList<JSONObject>();
+
+        Index(long version) {
+            this.version = version;
+        }
+    }
+
+    private final long ttlMillis;
+    private volatile Index index;
+    // When the token list behind index was last fetched, also for fetches that left the version unchanged
+    private volatile long loadedAt;
+
+    /**
+     * @param ttlMillis how long the index is served after a fetch, 0 refetches on every lookup
+     */
+    TokenIndex(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Rebuilds the index from tokens unless it was already built for this snapshot version
+     */
+    synchronized void update(long version, JSONArray tokens) throws JSONException {
+        loadedAt = SystemClock.elapsedRealtime();
+        Index current = index;
+        if (current != null && current.version == version) {
+            return;
+        }
+        index = build(version, tokens);
+    }
+
+    private static Index build(long version, JSONArray tokens) throws JSONException {
+        Index next = new Index(version);
+        for (int i = 0; i < tokens.length(); i++) {
+            JSONObject token = tokens.getJSONObject(i);
+            next.all.add(token);
+            next.byIssuerTokenId.put(token.optString("issuerTokenId"), token);
+            add(next.byFpanLastFour, token.optString("fpanLastFour"), token);
+            add(next.byNetwork, token.optInt("network"), token);
+            add(next.byTokenState, token.optInt("tokenState"), token);
+        }
+        return next;
+    }
+
+    private static <K> void add(Map<K, List<JSONObject>> map, K key, JSONObject token) {
+        List<JSONObject> tokens = map.get(key);
+        if (tokens == null) {
+            tokens = new ArrayList<JSONObject>(1);
+            map.put(key, tokens);
+        }
+        tokens.add(token);
+    }
+
+    /**
+     * Drops the index, the next findTokens fetches the token list again
+     */
+    void clear() {
+        index = null;
+    }
+
+    /**
+     * @return true if there is an index built from a token list fetched less than ttlMillis ago
+     */
+    boolean isFresh() {
+        return index != null && SystemClock.elapsedRealtime() - loadedAt < ttlMillis;
+    }
+
+    /**
+     * Tokens matching every criterion given in query
+     *
+     * Returns {version, tokens, ambiguous} where ambiguous is true if query has an fpanLastFour that
+     * more than one token in the wallet shares, whether or not the other criteria narrowed it down.
+     * The shared index is used if there is one. Otherwise the lookup runs on a one-off index over
+     * fetched, the token list the caller just got, which happens when the index was cleared while
+     * that list was being fetched. The version is null then.
+     * @param query {issuerTokenId?, fpanLastFour?, network?, tokenState?}, network as accepted by CardNetworks
+     * @param fetched token list to fall back to when there is no shared index, or null
+     * @return null if there is neither a shared index nor a fetched list
+     */
+    JSONObject find(JSONObject query, JSONArray fetched) throws JSONException {
+        Index current = index;
+        if (current == null) {
+            if (fetched == null) {
+                return null;
+            }
+            current = build(0, fetched);
+        }
+        // Android's optString returns "null" for JSONObject.NULL instead of the fallback
+        String issuerTokenId = query.isNull("issuerTokenId") ? null : query.getString("issuerTokenId");
+        String fpanLastFour = query.isNull("fpanLastFour") ? null : query.getString("fpanLastFour");
+        Integer network = query.has("network") && !query.isNull("network")
+                ? CardNetworks.network(query.get("network")) : null;
+        Integer tokenState = query.has("tokenState") && !query.isNull("tokenState")
+                ? query.getInt("tokenState") : null;
+
+        // Start from the most selective table and filter by the rest
+        List<JSONObject> candidates;
+        if (issuerTokenId != null) {
+            JSONObject token = current.byIssuerTokenId.get(issuerTokenId);
+            candidates = token != null ? Collections.singletonList(token) : NONE;
+        } else if (fpanLastFour != null) {
+            candidates = orNone(current.byFpanLastFour.get(fpanLastFour));
+        } else if (network != null) {
+            candidates = orNone(current.byNetwork.get(network));
+        } else if (tokenState != null) {
+            candidates = orNone(current.byTokenState.get(tokenState));
+        } else {
+            candidates = current.all;
+        }
+
+        JSONArray tokens = new JSONArray();
+        for (JSONObject token : candidates) {
+            if (fpanLastFour != null && !fpanLastFour.equals(token.optString("fpanLastFour"))) {
+                continue;
+            }
+            if (network != null && network != token.optInt("network")) {
+                continue;
+            }
+            if (tokenState != null && tokenState != token.optInt("tokenState")) {
+                continue;
+            }
+            tokens.put(token);
+        }
+        JSONObject value = new JSONObject();
+        value.put("version", current.version != 0 ? current.version : JSONObject.NULL);
+        value.put("tokens", tokens);
+        value.put("ambiguous", fpanLastFour != null && orNone(current.byFpanLastFour.get(fpanLastFour)).size() > 1);
+        return value;
+    }
+
+    private static List<JSONObject> orNone(List<JSONObject> tokens) {
+        return tokens != null ? tokens : NONE;
+    }
+}
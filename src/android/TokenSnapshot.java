@@ -0,0 +1,147 @@
+package com.landsbankinn;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Versioned snapshot of the token list, keyed by issuerTokenId
+ *
+ * Every token remembers the version it was added and last changed in, and removed tokens
+ * leave a bounded number of tombstones behind. That lets since(version) answer with only the
+ * tokens that changed after the client's version instead of the whole list.
+ *
+ * The upper bits of every version hold a random id of the snapshot instance and the lower
+ * 32 bits a counter. A version handed out by another instance, for example before the app was
+ * restarted, has a different id and gets a full snapshot back regardless of how the counters or
+ * the wall clock compare. Versions stay below 2^53 so JS numbers hold them exactly.
+ */
+class TokenSnapshot {
+    private static final int MAX_REMOVED = 64;
+    private static final int INSTANCE_BITS = 20;
+    private static final int COUNTER_BITS = 32;
+
+    private static class Entry {
+        JSONObject token;
+        String json;
+        long addedVersion;
+        long changedVersion;
+    }
+
+    private final long instanceId;
+    private final Map<String, Entry> tokens = new LinkedHashMap<String, Entry>();
+    private final LinkedHashMap<String, Long> removed = new LinkedHashMap<String, Long>();
+    private long version;
+    private long minVersion;
+    private boolean loaded;
+
+    TokenSnapshot() {
+        instanceId = 1 + new SecureRandom().nextInt((1 << INSTANCE_BITS) - 1);
+        version = instanceId << COUNTER_BITS;
+        minVersion = version + 1;
+    }
+
+    /**
+     * Replaces the snapshot with current, bumping the version if any token was added, removed or changed
+     * @return the snapshot version after the update
+     */
+    synchronized long update(JSONArray current) throws JSONException {
+        long next = version + 1;
+        boolean modified = !loaded;
+        Map<String, Entry> stale = new LinkedHashMap<String, Entry>(tokens);
+        for (int i = 0; i < current.length(); i++) {
+            JSONObject token = current.getJSONObject(i);
+            String issuerTokenId = token.optString("issuerTokenId");
+            String json = token.toString();
+            Entry entry = stale.remove(issuerTokenId);
+            if (entry == null) {
+                entry = new Entry();
+                entry.addedVersion = next;
+                entry.changedVersion = next;
+                tokens.put(issuerTokenId, entry);
+                removed.remove(issuerTokenId);
+                modified = true;
+            } else if (!entry.json.equals(json)) {
+                entry.changedVersion = next;
+                modified = true;
+            }
+            entry.token = token;
+            entry.json = json;
+        }
+        for (String issuerTokenId : stale.keySet()) {
+            tokens.remove(issuerTokenId);
+            removed.put(issuerTokenId, next);
+            modified = true;
+        }
+        Iterator<Map.Entry<String, Long>> oldest = removed.entrySet().iterator();
+        while (removed.size() > MAX_REMOVED) {
+            // Clients older than a dropped tombstone can no longer learn about that removal
+            minVersion = Math.max(minVersion, oldest.next().getValue());
+            oldest.remove();
+        }
+        loaded = true;
+        if (modified) {
+            version = next;
+        }
+        return version;
+    }
+
+    /**
+     * Tokens changed after clientVersion
+     *
+     * Returns {version, full: false, added, changed, removed} where added and changed hold full
+     * tokens and removed holds issuerTokenIds. If clientVersion is unknown to this snapshot,
+     * {version, full: true, tokens} with the whole list is returned instead.
+     * @param clientVersion version the client last synced to, 0 for none
+     */
+    synchronized JSONObject since(long clientVersion) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("version", version);
+        if (clientVersion >>> COUNTER_BITS != instanceId || clientVersion < minVersion || clientVersion > version) {
+            JSONArray all = new JSONArray();
+            for (Entry entry : tokens.values()) {
+                all.put(entry.token);
+            }
+            value.put("full", true);
+            value.put("tokens", all);
+            return value;
+        }
+        JSONArray added = new JSONArray();
+        JSONArray changed = new JSONArray();
+        JSONArray gone = new JSONArray();
+        if (clientVersion < version) {
+            for (Entry entry : tokens.values()) {
+                if (entry.addedVersion > clientVersion) {
+                    added.put(entry.token);
+                } else if (entry.changedVersion > clientVersion) {
+                    changed.put(entry.token);
+                }
+            }
+            for (Map.Entry<String, Long> entry : removed.entrySet()) {
+                if (entry.getValue() > clientVersion) {
+                    gone.put(entry.getKey());
+                }
+            }
+        }
+        value.put("full", false);
+        value.put("added", added);
+        value.put("changed", changed);
+        value.put("removed", gone);
+        return value;
+    }
+
+    /**
+     * Forgets all tokens and tombstones, every client gets a full snapshot on its next sync
+     */
+    synchronized void reset() {
+        tokens.clear();
+        removed.clear();
+        loaded = false;
+        version++;
+        minVersion = version + 1;
+    }
+}
@@ -0,0 +1,258 @@
+package com.landsbankinn;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-action latency histograms and status code counters
+ *
+ * Every call is split into four stages:
+ * - queue: execute until the action starts running on its thread
+ * - ipc: action start until the Play services task completes
+ * - delivery: task completion until the result is handed to Cordova
+ * - total: execute until the result is handed to Cordova
+ *
+ * Latencies go into fixed exponential buckets held in AtomicLongArrays, so recording is lock-free.
+ * When metrics are disabled track returns the CallbackContext it was given and nothing is allocated.
+ */
+final class WalletMetrics {
+    static final String[] STAGES = { "queue", "ipc", "delivery", "total" };
+    private static final int QUEUE = 0;
+    private static final int IPC = 1;
+    private static final int DELIVERY = 2;
+    private static final int TOTAL = 3;
+
+    /** Upper bucket bounds in microseconds, the last bucket holds everything slower */
+    private static final long[] BOUNDS_US = {
+            50, 100, 250, 500,
+            1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000 };
+    private static final int BUCKETS = BOUNDS_US.length + 1;
+
+    /** TapAndPay status codes are 15000 and up, codes outside the range are counted as other */
+    private static final int FIRST_STATUS_CODE = 15000;
+    private static final int STATUS_CODES = 64;
+    private static final int STATUS_UNKNOWN = STATUS_CODES;
+    private static final int STATUS_OTHER = STATUS_CODES + 1;
+    private static final int STATUS_OK = STATUS_CODES + 2;
+
+    private final String[] actions;
+    private final Map<String, Integer> actionIndex = new HashMap<String, Integer>();
+    private final AtomicLongArray buckets;
+    private final AtomicLongArray sums;
+    private final AtomicLongArray statusCodes = new AtomicLongArray(STATUS_CODES + 3);
+    private final boolean enabled;
+
+    /**
+     * @param actions every action that is measured
+     */
+    WalletMetrics(String[] actions, boolean enabled) {
+        this.actions = actions;
+        for (int i = 0; i < actions.length; i++) {
+            actionIndex.put(actions[i], i);
+        }
+        this.buckets = new AtomicLongArray(actions.length * STAGES.length * BUCKETS);
+        this.sums = new AtomicLongArray(actions.length * STAGES.length);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts measuring a call, the returned CallbackContext must be used in place of callbackContext
+     */
+    CallbackContext track(String action, CallbackContext callbackContext) {
+        if (!enabled) {
+            return callbackContext;
+        }
+        Integer index = actionIndex.get(action);
+        if (index == null) {
+            return callbackContext;
+        }
+        return new Tracked(this, index, callbackContext);
+    }
+
+    /**
+     * Marks the start of the action on its worker thread
+     */
+    static void started(CallbackContext callbackContext) {
+        if (callbackContext instanceof Tracked) {
+            ((Tracked) callbackContext).startedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks completion of the Play services task
+     */
+    static void completed(CallbackContext callbackContext) {
+        if (callbackContext instanceof Tracked) {
+            Tracked tracked = (Tracked) callbackContext;
+            if (tracked.completedAt == 0) {
+                tracked.completedAt = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Measures the call up to its final result, for actions that send a keepCallback result
+     * before their actual one
+     */
+    static void untilFinalResult(CallbackContext callbackContext) {
+        if (callbackContext instanceof Tracked) {
+            ((Tracked) callbackContext).untilFinal = true;
+        }
+    }
+
+    /**
+     * Records the TapAndPay status code the call is about to fail with
+     */
+    static void statusCode(CallbackContext callbackContext, int statusCode) {
+        if (callbackContext instanceof Tracked) {
+            ((Tracked) callbackContext).statusCode = statusCode;
+        }
+    }
+
+    private void record(int action, int stage, long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BOUNDS_US.length && micros > BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        int slot = action * STAGES.length + stage;
+        buckets.incrementAndGet(slot * BUCKETS + bucket);
+        sums.addAndGet(slot, micros);
+    }
+
+    private void delivered(Tracked tracked, boolean ok) {
+        long now = System.nanoTime();
+        record(tracked.action, TOTAL, now - tracked.enqueuedAt);
+        if (tracked.startedAt != 0) {
+            record(tracked.action, QUEUE, tracked.startedAt - tracked.enqueuedAt);
+            if (tracked.completedAt != 0) {
+                record(tracked.action, IPC, tracked.completedAt - tracked.startedAt);
+            }
+        }
+        if (tracked.completedAt != 0) {
+            record(tracked.action, DELIVERY, now - tracked.completedAt);
+        }
+        int status;
+        if (ok) {
+            status = STATUS_OK;
+        } else if (tracked.statusCode < 0) {
+            status = STATUS_UNKNOWN;
+        } else if (tracked.statusCode >= FIRST_STATUS_CODE && tracked.statusCode < FIRST_STATUS_CODE + STATUS_CODES) {
+            status = tracked.statusCode - FIRST_STATUS_CODE;
+        } else {
+            status = STATUS_OTHER;
+        }
+        statusCodes.incrementAndGet(status);
+    }
+
+    /**
+     * {enabled, bucketsUs, actions: {action: {stage: {count, sumUs, buckets}}}, statusCodes: {ok, unknown, other, 15002, ...}}
+     * Only actions and status codes with at least one call are included.
+     * @param reset zero all counters after reading them
+     */
+    JSONObject toJSON(boolean reset) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("enabled", enabled);
+        JSONArray bounds = new JSONArray();
+        for (long bound : BOUNDS_US) {
+            bounds.put(bound);
+        }
+        value.put("bucketsUs", bounds);
+        JSONObject byAction = new JSONObject();
+        for (int action = 0; action < actions.length; action++) {
+            JSONObject stages = new JSONObject();
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                int slot = action * STAGES.length + stage;
+                JSONArray counts = new JSONArray();
+                long count = 0;
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    long n = reset ? buckets.getAndSet(slot * BUCKETS + bucket, 0) : buckets.get(slot * BUCKETS + bucket);
+                    counts.put(n);
+                    count += n;
+                }
+                long sum = reset ? sums.getAndSet(slot, 0) : sums.get(slot);
+                if (count > 0) {
+                    JSONObject histogram = new JSONObject();
+                    histogram.put("count", count);
+                    histogram.put("sumUs", sum);
+                    histogram.put("buckets", counts);
+                    stages.put(STAGES[stage], histogram);
+                }
+            }
+            if (stages.length() > 0) {
+                byAction.put(actions[action], stages);
+            }
+        }
+        value.put("actions", byAction);
+        JSONObject codes = new JSONObject();
+        for (int i = 0; i < statusCodes.length(); i++) {
+            long n = reset ? statusCodes.getAndSet(i, 0) : statusCodes.get(i);
+            if (n == 0) {
+                continue;
+            }
+            if (i == STATUS_OK) {
+                codes.put("ok", n);
+            } else if (i == STATUS_UNKNOWN) {
+                codes.put("unknown", n);
+            } else if (i == STATUS_OTHER) {
+                codes.put("other", n);
+            } else {
+                codes.put(Integer.toString(FIRST_STATUS_CODE + i), n);
+            }
+        }
+        value.put("statusCodes", codes);
+        return value;
+    }
+
+    /**
+     * CallbackContext that records stage timestamps and hands results on to the real one
+     */
+    private static final class Tracked extends CallbackContext {
+        private final WalletMetrics metrics;
+        private final int action;
+        private final CallbackContext delegate;
+        private final long enqueuedAt = System.nanoTime();
+        volatile long startedAt;
+        volatile long completedAt;
+        volatile int statusCode = -1;
+        volatile boolean untilFinal;
+        private boolean delivered;
+
+        Tracked(WalletMetrics metrics, int action, CallbackContext delegate) {
+            super(delegate.getCallbackId(), null);
+            this.metrics = metrics;
+            this.action = action;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            boolean measured = pluginResult.getStatus() != PluginResult.Status.NO_RESULT.ordinal()
+                    && !(untilFinal && pluginResult.getKeepCallback());
+            boolean first = false;
+            if (measured) {
+                synchronized (this) {
+                    first = !delivered;
+                    delivered = true;
+                }
+            }
+            delegate.sendPluginResult(pluginResult);
+            // Streaming actions keep the callback open, only the first measured result is recorded
+            if (first) {
+                metrics.delivered(this, pluginResult.getStatus() == PluginResult.Status.OK.ordinal());
+            }
+        }
+    }
+}
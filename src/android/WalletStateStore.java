@@ -0,0 +1,164 @@
+package com.landsbankinn;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypted on-disk snapshot of the wallet state
+ *
+ * Keeps the last known wallet ID and the non-sensitive metadata of its tokens (issuerTokenId,
+ * fpanLastFour, tokenState, network) in the app's no-backup files directory, so the UI can be
+ * rendered on cold start before the first Play services round-trip finishes.
+ *
+ * The file is encrypted with AES/GCM using a key held in the Android Keystore. Anything that
+ * cannot be read back (missing file, lost key, corrupt data) is treated as no snapshot.
+ */
+class WalletStateStore {
+    private static final String FILE_NAME = "google-wallet-state.bin";
+    private static final String KEY_ALIAS = "GoogleWalletStateKey";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final String[] FIELDS = { "issuerTokenId", "fpanLastFour", "tokenState", "network" };
+
+    private final File file;
+    private final WalletTrace trace;
+
+    WalletStateStore(Context context, WalletTrace trace) {
+        file = new File(context.getNoBackupFilesDir(), FILE_NAME);
+        this.trace = trace;
+    }
+
+    /**
+     * Strips a listTokens result down to the fields that are stored on disk
+     */
+    static JSONArray strip(JSONArray tokens) throws JSONException {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < tokens.length(); i++) {
+            JSONObject token = tokens.getJSONObject(i);
+            JSONObject item = new JSONObject();
+            for (String field : FIELDS) {
+                item.put(field, token.opt(field));
+            }
+            result.put(item);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {walletId, savedAt, tokens} or null if there is no readable snapshot
+     */
+    synchronized JSONObject load() {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] data = readFile();
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, getKey(), new GCMParameterSpec(TAG_LENGTH_BITS, data, 0, IV_LENGTH));
+            byte[] plain = cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+            return new JSONObject(new String(plain, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            trace.eRedacted("WalletStateStore load failed, dropping snapshot", e);
+            clear();
+            return null;
+        }
+    }
+
+    /**
+     * @param walletId active wallet ID the tokens belong to
+     * @param tokens listTokens result, only the stored fields are kept
+     */
+    synchronized void save(String walletId, JSONArray tokens) {
+        try {
+            JSONObject value = new JSONObject();
+            value.put("walletId", walletId);
+            value.put("savedAt", System.currentTimeMillis());
+            value.put("tokens", strip(tokens));
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, getKey());
+            byte[] iv = cipher.getIV();
+            byte[] encrypted = cipher.doFinal(value.toString().getBytes(StandardCharsets.UTF_8));
+            File tmp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(iv);
+                out.write(encrypted);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (Exception e) {
+            trace.e("WalletStateStore save failed", e);
+        }
+    }
+
+    /**
+     * Deletes the snapshot unless it belongs to walletId. Checked under the store lock, so a
+     * snapshot another thread just saved for the new wallet survives a clear for the old one.
+     * @param walletId the active wallet ID, or null to delete any snapshot
+     */
+    synchronized void clearUnlessWallet(String walletId) {
+        JSONObject stored = load();
+        if (stored != null && walletId != null && walletId.equals(stored.optString("walletId"))) {
+            return;
+        }
+        clear();
+    }
+
+    synchronized void clear() {
+        if (file.exists() && !file.delete()) {
+            trace.e("WalletStateStore could not delete snapshot");
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private SecretKey getKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,76 @@
+package com.landsbankinn;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import com.google.android.gms.tapandpay.issuer.TokenInfo;
+import java.util.List;
+
+/**
+ * Plugin-side copy of a TokenInfo
+ *
+ * Decouples the plugin from the Play services TokenInfo class, which cannot be created
+ * outside Play services, so token lists can be produced by TapAndPayBackend fakes.
+ */
+final class WalletToken {
+    final String issuerTokenId;
+    final String issuerName;
+    final String fpanLastFour;
+    final String dpanLastFour;
+    final int tokenServiceProvider;
+    final int network;
+    final int tokenState;
+    final boolean isDefaultToken;
+    final String portfolioName;
+
+    WalletToken(String issuerTokenId, String issuerName, String fpanLastFour, String dpanLastFour,
+                int tokenServiceProvider, int network, int tokenState, boolean isDefaultToken, String portfolioName) {
+        this.issuerTokenId = issuerTokenId;
+        this.issuerName = issuerName;
+        this.fpanLastFour = fpanLastFour;
+        this.dpanLastFour = dpanLastFour;
+        this.tokenServiceProvider = tokenServiceProvider;
+        this.network = network;
+        this.tokenState = tokenState;
+        this.isDefaultToken = isDefaultToken;
+        this.portfolioName = portfolioName;
+    }
+
+    static WalletToken from(TokenInfo token) {
+        return new WalletToken(
+                token.getIssuerTokenId(),
+                token.getIssuerName(),
+                token.getFpanLastFour(),
+                token.getDpanLastFour(),
+                token.getTokenServiceProvider(),
+                token.getNetwork(),
+                token.getTokenState(),
+                token.getIsDefaultToken(),
+                token.getPortfolioName());
+    }
+
+    /**
+     * The token as returned to JS by listTokens
+     */
+    JSONObject toJSON() throws JSONException {
+        JSONObject item = new JSONObject();
+        item.put("issuerTokenId", issuerTokenId);
+        item.put("issuerName", issuerName);
+        item.put("fpanLastFour", fpanLastFour);
+        item.put("dpanLastFour", dpanLastFour);
+        item.put("tokenServiceProvider", tokenServiceProvider);
+        item.put("network", network);
+        item.put("tokenState", tokenState);
+        item.put("isDefaultToken", isDefaultToken);
+        item.put("portfolioName", portfolioName);
+        return item;
+    }
+
+    static JSONArray toJSON(List<WalletToken> tokens) throws JSONException {
+        JSONArray result = new JSONArray();
+        for (WalletToken token : tokens) {
+            result.put(token.toJSON());
+        }
+        return result;
+    }
+}
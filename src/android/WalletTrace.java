@@ -0,0 +1,223 @@
+package com.landsbankinn;
+
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Plugin logging with a runtime level, sampling and redaction
+ *
+ * Messages are only built once a statement passes the level and sampling checks, so disabled
+ * statements cost a field read. Messages take at most one argument, which is appended to the
+ * message, or a prefix and an argument around it, to avoid varargs arrays. Errors are never sampled.
+ *
+ * Call arguments are only logged at debug level, with every value whose field name is in
+ * SENSITIVE_FIELDS replaced, recursively for nested objects and arrays.
+ */
+final class WalletTrace {
+    static final int OFF = 0;
+    static final int ERROR = 1;
+    static final int INFO = 2;
+    static final int DEBUG = 3;
+    private static final String[] LEVELS = { "off", "error", "info", "debug" };
+
+    private static final String TAG = "GoogleWalletPlugin";
+    private static final String REDACTED = "[redacted]";
+    private static final Set<String> SENSITIVE_FIELDS = new HashSet<String>(Arrays.asList(
+            "opc", "address", "hardwareId", "walletId", "tokenId", "issuerTokenId",
+            "identifier", "identifiers", "lastDigits", "fpanLastFour", "dpanLastFour"));
+    // Names of the positional arguments of each action, used to redact them by field name
+    private static final Map<String, String[]> ARG_NAMES = new HashMap<String, String[]>();
+    static {
+        ARG_NAMES.put("pushTokenize", new String[] {
+                "opc", "displayName", "lastDigits", "address", "opcEncoding", "network", "tokenServiceProvider" });
+        ARG_NAMES.put("pushTokenizeBatch", new String[] { "cards" });
+        ARG_NAMES.put("isCardInWallet", new String[] { "identifier" });
+        ARG_NAMES.put("findTokens", new String[] { "query", "refresh" });
+        ARG_NAMES.put("isCardsInWallet", new String[] { "identifiers" });
+        ARG_NAMES.put("getWalletState", new String[] { "identifiers", "refresh" });
+    }
+
+    private volatile int level;
+    private volatile double sampleRate;
+
+    WalletTrace(int level, double sampleRate) {
+        this.level = level;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the level named name (off, error, info, debug), or fallback if the name is unknown
+     */
+    static int parseLevel(String name, int fallback) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * @param sampleRate share of info and debug statements that are logged, between 0 and 1
+     */
+    void configure(int level, double sampleRate) {
+        this.level = level;
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    double getSampleRate() {
+        return sampleRate;
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("level", LEVELS[level]);
+        value.put("sampleRate", sampleRate);
+        return value;
+    }
+
+    boolean isEnabled(int level) {
+        if (level > this.level) {
+            return false;
+        }
+        double rate = sampleRate;
+        return level == ERROR || rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    void i(String message) {
+        if (isEnabled(INFO)) {
+            Log.i(TAG, message);
+        }
+    }
+
+    void i(String message, Object arg) {
+        if (isEnabled(INFO)) {
+            Log.i(TAG, message + arg);
+        }
+    }
+
+    void i(String message, long arg) {
+        if (isEnabled(INFO)) {
+            Log.i(TAG, message + arg);
+        }
+    }
+
+    void i(String prefix, String message, long arg) {
+        if (isEnabled(INFO)) {
+            Log.i(TAG, prefix + message + arg);
+        }
+    }
+
+    void d(String message) {
+        if (isEnabled(DEBUG)) {
+            Log.d(TAG, message);
+        }
+    }
+
+    void d(String message, Object arg) {
+        if (isEnabled(DEBUG)) {
+            Log.d(TAG, message + arg);
+        }
+    }
+
+    void d(String message, long arg) {
+        if (isEnabled(DEBUG)) {
+            Log.d(TAG, message + arg);
+        }
+    }
+
+    void e(String message) {
+        if (isEnabled(ERROR)) {
+            Log.e(TAG, message);
+        }
+    }
+
+    void e(String message, long arg) {
+        if (isEnabled(ERROR)) {
+            Log.e(TAG, message + arg);
+        }
+    }
+
+    void e(String message, Throwable throwable) {
+        if (isEnabled(ERROR)) {
+            Log.e(TAG, message, throwable);
+        }
+    }
+
+    /**
+     * Logs only the class of throwable, for exceptions whose message can quote caller data,
+     * such as org.json type mismatches that include the offending value
+     */
+    void eRedacted(String message, Throwable throwable) {
+        if (isEnabled(ERROR)) {
+            Log.e(TAG, message + " " + throwable.getClass().getName());
+        }
+    }
+
+    /**
+     * Logs an incoming call, the action at info level and its redacted arguments at debug level
+     */
+    void call(String action, JSONArray args) {
+        if (level >= DEBUG && isEnabled(DEBUG)) {
+            Log.d(TAG, action + " " + redactArgs(action, args));
+        } else if (isEnabled(INFO)) {
+            Log.i(TAG, action);
+        }
+    }
+
+    static String redactArgs(String action, JSONArray args) {
+        String[] names = ARG_NAMES.get(action);
+        JSONObject named = new JSONObject();
+        try {
+            for (int i = 0; i < args.length(); i++) {
+                String name = names != null && i < names.length ? names[i] : Integer.toString(i);
+                named.put(name, redact(name, args.opt(i)));
+            }
+        } catch (JSONException e) {
+            return REDACTED;
+        }
+        return named.toString();
+    }
+
+    /**
+     * Copy of value with every sensitive field replaced
+     * @param name field name of value, null for array elements
+     */
+    static Object redact(String name, Object value) throws JSONException {
+        if (name != null && SENSITIVE_FIELDS.contains(name) && value != null && value != JSONObject.NULL) {
+            return REDACTED;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            JSONObject copy = new JSONObject();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                copy.put(key, redact(key, object.opt(key)));
+            }
+            return copy;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < array.length(); i++) {
+                copy.put(redact(null, array.opt(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
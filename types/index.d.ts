@@ -97,9 +97,12 @@ export type GoogleWalletTokenInfo = {
  * your app package name. You can check if your tokens have this linking by tapping
  * on the card in the Google Wallet app to see the card details view.
  *
+ * Results are cached by the plugin for a short time (GoogleWalletTokenCacheTtl preference).
+ * Pass refresh: true to bypass the cache.
+ *
  * https://developers.google.com/pay/issuers/apis/push-provisioning/android/reading-wallet?authuser=2#listtokens
  */
-export function listTokens(): Promise<
+export function listTokens(args?: { refresh?: boolean }): Promise<
   | {
       type: "result";
       tokens: GoogleWalletTokenInfo[];
@@ -111,11 +114,135 @@ export function listTokens(): Promise<
     }
 >;
 
+export type PrefetchTiming = {
+  started: boolean;
+  /** Time from plugin load until the prefetched call completed */
+  durationMs?: number | null;
+  successful?: boolean | null;
+  /** True if a JS call used the prefetched result */
+  taken?: boolean;
+  /** Time from plugin load until the first JS call used the prefetched result */
+  takenAfterMs?: number | null;
+  /** True if the JS call arrived before the prefetch completed and attached to it */
+  takenWhilePending?: boolean;
+  /** True if the result was dropped before any JS call used it */
+  expired?: boolean;
+};
+
+/**
+ * Timing of the load-time prefetch (GoogleWalletPrefetch preference), for debugging
+ */
+export function getPrefetchStats(): Promise<{
+  type: "result";
+  enabled: boolean;
+  walletId: PrefetchTiming;
+  tokens: PrefetchTiming;
+}>;
+
+export type LatencyHistogram = {
+  count: number;
+  sumUs: number;
+  /** Calls per bucket, bucket i holds calls up to bucketsUs[i], the last one everything slower */
+  buckets: number[];
+};
+
+/**
+ * Latency histograms per action and stage plus counts per status code
+ * (GoogleWalletMetrics preference). Only actions and status codes that were seen are included.
+ * @param reset zero all counters after reading them
+ */
+export function getMetrics(args?: { reset?: boolean }): Promise<{
+  type: "result";
+  enabled: boolean;
+  bucketsUs: number[];
+  actions: {
+    [action: string]: {
+      /** execute until the action starts running */
+      queue?: LatencyHistogram;
+      /** action start until Google Wallet answers */
+      ipc?: LatencyHistogram;
+      /** Google Wallet answer until the result is handed to the WebView */
+      delivery?: LatencyHistogram;
+      total?: LatencyHistogram;
+    };
+  };
+  /** Keys are ok, unknown, other or a GoogleWalletStatusCodes value */
+  statusCodes: { [statusCode: string]: number };
+}>;
+
+export type TraceLevel = "off" | "error" | "info" | "debug";
+
+/**
+ * Changes native logging for the rest of the session. Sensitive fields such as the OPC,
+ * address, hardware ID and token IDs are always redacted.
+ * @param level debug also logs call arguments
+ * @param sampleRate share of info and debug lines that are logged, between 0 and 1
+ *
+ * Resolves with the active level and sampleRate. Call without arguments to read them.
+ */
+export function setTrace(args?: {
+  level?: TraceLevel;
+  sampleRate?: number;
+}): Promise<{
+  type: "result";
+  level: TraceLevel;
+  sampleRate: number;
+}>;
+
+/**
+ * Incremental token sync
+ *
+ * Returns only the tokens added, changed or removed since the given version, together with the
+ * new version to pass on the next call. added and changed should be applied as upserts keyed by
+ * issuerTokenId. When version is 0 or too old to diff against, the whole list is returned in
+ * tokens with full: true.
+ * @param version version returned by the previous call, 0 for none
+ * @param refresh bypass the listTokens cache
+ */
+export function listTokensSince(args?: {
+  version?: number;
+  refresh?: boolean;
+}): Promise<
+  | {
+      type: "result";
+      version: number;
+      full: true;
+      tokens: GoogleWalletTokenInfo[];
+    }
+  | {
+      type: "result";
+      version: number;
+      full: false;
+      added: GoogleWalletTokenInfo[];
+      changed: GoogleWalletTokenInfo[];
+      /** issuerTokenId of removed tokens */
+      removed: string[];
+    }
+  | {
+      type: "error";
+      statusCode: GoogleWalletStatusCodes;
+      message: string;
+    }
+>;
+
+/**
+ * Hit and miss counters of the listTokens cache
+ */
+export function getTokenCacheStats(): Promise<{
+  type: "result";
+  hits: number;
+  misses: number;
+  /** Cache TTL in milliseconds */
+  ttl: number;
+  /** True if a fresh snapshot is currently cached */
+  cached: boolean;
+}>;
+
 export type PushTokenizeArgs = {
   /**
-   * Opaque Payment Card JWT
+   * Opaque Payment Card JWT. Strings are sent UTF-8 encoded, binary data is sent as is.
    */
-  opc: string;
+  opc: string | ArrayBuffer | Uint8Array;
   /**
    * Name or nickname used to describe the payment card in the user interface
    */
@@ -150,8 +277,38 @@ export type PushTokenizeArgs = {
     /** The postal or zip code */
     postalCode?: string;
   };
+  /**
+   * Card network, a name or a TapAndPay.CARD_NETWORK_* constant. Defaults to "visa".
+   */
+  network?: CardNetwork | number;
+  /**
+   * Token service provider, a name or a TapAndPay.TOKEN_PROVIDER_* constant.
+   * Defaults to the usual provider of the network, required for networks without one.
+   */
+  tokenServiceProvider?: TokenServiceProvider | number;
 };
 
+export type CardNetwork =
+  | "amex"
+  | "discover"
+  | "mastercard"
+  | "visa"
+  | "interac"
+  | "eftpos"
+  | "maestro"
+  | "jcb"
+  | "elo";
+
+export type TokenServiceProvider =
+  | "amex"
+  | "discover"
+  | "mastercard"
+  | "visa"
+  | "interac"
+  | "eftpos"
+  | "jcb"
+  | "elo";
+
 /**
  * Client-side push provisioning
  *
@@ -166,6 +323,8 @@ export function pushTokenize({
   displayName,
   lastDigits,
   address,
+  network,
+  tokenServiceProvider,
 }: PushTokenizeArgs): Promise<
   | {
       type: "result";
@@ -174,8 +333,43 @@ export function pushTokenize({
   | {
       type: "canceled";
     }
+  | {
+      /** No result arrived from Google Wallet within 15 minutes */
+      type: "timeout";
+    }
 >;
 
+/**
+ * Push provisioning of several cards in one flow
+ *
+ * Every card is validated and prepared before the first one is launched, then Google Wallet is
+ * opened for one card after another. Resolves once every card has a result, with one result per
+ * card in the order given. Cards that fail validation get {type: "error", message} and are skipped.
+ */
+export function pushTokenizeBatch(cards: PushTokenizeArgs[]): Promise<{
+  type: "result";
+  results: (
+    | {
+        type: "result";
+        tokenId: string;
+      }
+    | {
+        type: "canceled";
+      }
+    | {
+        /** No result arrived from Google Wallet within 15 minutes */
+        type: "timeout";
+      }
+    | {
+        type: "error";
+        /** Validation or launch error */
+        message?: string;
+        /** Unexpected activity result code */
+        resultCode?: number;
+      }
+  )[];
+}>;
+
 /**
  * Card lookup by last 4 FPAN digits
  * Please note this endpoint can return false positives since the last four FPAN digits are not necessarily unique among tokens.
@@ -195,6 +389,164 @@ export function isCardInWallet({ identifier }: { identifier: string }): Promise<
     }
 >;
 
+export type IsCardInWalletResult =
+  | {
+      result: "token found" | "token not found";
+    }
+  | {
+      statusCode: GoogleWalletStatusCodes;
+      message: string;
+    };
+
+/**
+ * Batched card lookup by last 4 FPAN digits
+ * Checks every identifier in one call, the lookups run in parallel on the native side.
+ * Same false positive caveat as isCardInWallet applies.
+ * @param identifiers list of last four FPAN (Last 4 card number digits)
+ */
+export function isCardsInWallet({
+  identifiers,
+}: {
+  identifiers: string[];
+}): Promise<{
+  type: "result";
+  /** Result or error per identifier */
+  results: { [identifier: string]: IsCardInWalletResult };
+}>;
+
+/**
+ * Token lookup from the plugin's local token index, without a Google Pay call
+ *
+ * Finds the tokens matching every given criterion. The index is built from the last listTokens
+ * result and fetched once if there is none yet. Unlike isCardInWallet it only sees tokens whose
+ * metadata matches your app package name, but it reports whether the last four digits are
+ * shared by several tokens.
+ * @param refresh refetch the token list before the lookup
+ */
+export function findTokens(
+  query: {
+    issuerTokenId?: string;
+    fpanLastFour?: string;
+    network?: CardNetwork | GoogleWalletCardNetwork;
+    tokenState?: GoogleWalletTokenState;
+  },
+  options?: { refresh?: boolean }
+): Promise<
+  | {
+      type: "result";
+      /**
+       * Token snapshot version the index was built from, as returned by listTokensSince.
+       * null if the lookup ran on a token list fetched while the index was being invalidated.
+       */
+      version: number | null;
+      tokens: GoogleWalletTokenInfo[];
+      /** True if more than one token in the wallet has the queried fpanLastFour */
+      ambiguous: boolean;
+    }
+  | {
+      type: "error";
+      statusCode: GoogleWalletStatusCodes;
+      message: string;
+    }
+>;
+
+export type GoogleWalletError = {
+  statusCode: GoogleWalletStatusCodes;
+  message: string;
+};
+
+/**
+ * Wallet state in one round-trip
+ *
+ * Fetches the active wallet ID, the token list and the tokenization status of the given
+ * identifiers in parallel. A failing part does not fail the whole call, its value is null
+ * and the failure is reported under errors instead.
+ * @param identifiers list of last four FPAN to look up
+ * @param refresh bypass the listTokens cache
+ */
+export function getWalletState(args?: {
+  identifiers?: string[];
+  refresh?: boolean;
+}): Promise<{
+  type: "result";
+  walletId: string | null;
+  tokens: GoogleWalletTokenInfo[] | null;
+  /** Result or error per identifier */
+  cards: { [identifier: string]: IsCardInWalletResult };
+  errors: {
+    walletId?: GoogleWalletError;
+    tokens?: GoogleWalletError;
+  };
+}>;
+
+export type GoogleWalletCachedTokenInfo = Pick<
+  GoogleWalletTokenInfo,
+  "issuerTokenId" | "fpanLastFour" | "tokenState" | "network"
+>;
+
+/**
+ * Stale-while-revalidate wallet state
+ *
+ * Resolves immediately with the wallet state saved on disk by a previous run (requires the
+ * GoogleWalletPersistentSnapshot preference, otherwise walletId and tokens are null).
+ * The state is then fetched from Google Wallet and passed to onRevalidated together with
+ * changed, which tells whether it differs from the cached state.
+ */
+export function getCachedWalletState(
+  onRevalidated?: (state: {
+    type: "revalidated";
+    changed: boolean;
+    walletId: string | null;
+    tokens: GoogleWalletTokenInfo[] | null;
+    error?: GoogleWalletError;
+  }) => void
+): Promise<{
+  type: "result";
+  walletId: string | null;
+  /** Time the snapshot was saved, in milliseconds since epoch */
+  savedAt: number | null;
+  tokens: GoogleWalletCachedTokenInfo[] | null;
+}>;
+
+export type WalletChangeEvent =
+  | {
+      type: "changed";
+      /** Tokens that were not in the previous list */
+      added: GoogleWalletTokenInfo[];
+      /** issuerTokenId of tokens that are no longer in the list */
+      removed: string[];
+      /** Tokens with at least one changed field */
+      changed: GoogleWalletTokenInfo[];
+      /** Number of native change callbacks folded into this event */
+      coalesced: number;
+    }
+  | {
+      type: "error";
+      statusCode: GoogleWalletStatusCodes;
+      message: string;
+      coalesced: number;
+    };
+
+/**
+ * Wallet change events
+ *
+ * Calls listener whenever the token list changes, for example a token going from PENDING
+ * to ACTIVE. Bursts of changes are debounced into one event. Only one subscription is kept,
+ * subscribing again replaces the previous listener.
+ * @param debounceMs quiet period before changes are reported, defaults to 500
+ *
+ * Resolves once the subscription is active.
+ */
+export function subscribeWalletChanges(
+  listener: (event: WalletChangeEvent) => void,
+  args?: { debounceMs?: number }
+): Promise<{ type: "result" }>;
+
+/**
+ * Stops wallet change events
+ */
+export function unsubscribeWalletChanges(): Promise<{ type: "result" }>;
+
 /* ENUMS */
 
 export enum GoogleWalletStatusCodes {
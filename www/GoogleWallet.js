@@ -1,4 +1,5 @@
 const exec = cordova.require("cordova/exec");
+const base64 = cordova.require("cordova/base64");
 
 const service = "GoogleWallet";
 
@@ -6,8 +7,20 @@ const tapAndPay = {
   getActiveWalletId,
   getStableHardwareId,
   listTokens,
+  listTokensSince,
+  getTokenCacheStats,
+  getPrefetchStats,
+  getMetrics,
+  setTrace,
   pushTokenize,
+  pushTokenizeBatch,
   isCardInWallet,
+  isCardsInWallet,
+  findTokens,
+  getWalletState,
+  getCachedWalletState,
+  subscribeWalletChanges,
+  unsubscribeWalletChanges,
 };
 
 /**
@@ -87,9 +100,12 @@ function getStableHardwareId() {
  * your app package name. You can check if your tokens have this linking by tapping
  * on the card in the Google Wallet app to see the card details view.
  *
+ * Results are cached by the plugin for a short time (GoogleWalletTokenCacheTtl preference).
+ * Pass refresh: true to bypass the cache.
+ *
  * https://developers.google.com/pay/issuers/apis/push-provisioning/android/reading-wallet?authuser=2#listtokens
  */
-function listTokens() {
+function listTokens({ refresh } = {}) {
   return new Promise((resolve, reject) => {
     exec(
       (tokens) => {
@@ -107,7 +123,116 @@ function listTokens() {
         }
       },
       service,
-      "listTokens"
+      "listTokens",
+      [!!refresh]
+    );
+  });
+}
+
+/**
+ * Timing of the load-time prefetch (GoogleWalletPrefetch preference), for debugging
+ */
+function getPrefetchStats() {
+  return new Promise((resolve, reject) => {
+    exec(
+      (stats) => {
+        resolve({ type: "result", ...stats });
+      },
+      reject,
+      service,
+      "getPrefetchStats"
+    );
+  });
+}
+
+/**
+ * Latency histograms per action and stage plus counts per status code
+ * (GoogleWalletMetrics preference). Stages are queue, ipc, delivery and total, buckets[i]
+ * counts calls up to bucketsUs[i] microseconds and the last bucket counts slower ones.
+ * @param reset zero all counters after reading them
+ */
+function getMetrics({ reset } = {}) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (metrics) => {
+        resolve({ type: "result", ...metrics });
+      },
+      reject,
+      service,
+      "getMetrics",
+      [!!reset]
+    );
+  });
+}
+
+/**
+ * Changes native logging for the rest of the session. Sensitive fields such as the OPC,
+ * address, hardware ID and token IDs are always redacted.
+ * @param level off, error, info or debug (debug also logs call arguments)
+ * @param sampleRate share of info and debug lines that are logged, between 0 and 1
+ *
+ * Resolves with the active level and sampleRate. Call without arguments to read them.
+ */
+function setTrace({ level, sampleRate } = {}) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (trace) => {
+        resolve({ type: "result", ...trace });
+      },
+      reject,
+      service,
+      "setTrace",
+      [{ level, sampleRate }]
+    );
+  });
+}
+
+/**
+ * Incremental token sync
+ *
+ * Returns only the tokens added, changed or removed since the given version, together with the
+ * new version to pass on the next call. added and changed should be applied as upserts keyed by
+ * issuerTokenId, removed holds issuerTokenIds. When version is 0 or too old to diff against,
+ * the whole list is returned in tokens with full: true.
+ * @param version version returned by the previous call, 0 for none
+ * @param refresh bypass the listTokens cache
+ */
+function listTokensSince({ version = 0, refresh } = {}) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (sync) => {
+        resolve({ type: "result", ...sync });
+      },
+      (error) => {
+        if (typeof error === "string") {
+          reject(error);
+        } else {
+          resolve({
+            type: "error",
+            statusCode: error.statusCode,
+            message: error.message,
+          });
+        }
+      },
+      service,
+      "listTokensSince",
+      [version, !!refresh]
+    );
+  });
+}
+
+/**
+ * Hit and miss counters of the listTokens cache
+ */
+function getTokenCacheStats() {
+  return new Promise((resolve, reject) => {
+    exec(
+      (stats) => {
+        resolve({ type: "result", ...stats });
+      },
+      reject,
+      service,
+      "getTokenCacheStats"
     );
   });
 }
@@ -119,9 +244,23 @@ function listTokens() {
  * card details needed for Google Pay to get a valid token. Tokens added using this method
  * are added to the active wallet.
  *
+ * The OPC can be passed as a string, which is sent to Google Wallet UTF-8 encoded, or as an
+ * ArrayBuffer or Uint8Array, which is sent as is.
+ *
+ * network and tokenServiceProvider take a name ("visa", "mastercard", ...) or a TapAndPay constant.
+ * The network defaults to Visa and the provider to the usual provider of the network.
+ *
  * https://developers.google.com/pay/issuers/apis/push-provisioning/android/wallet-operations?authuser=2#client-side_push_provisioning
  */
-function pushTokenize({ opc, displayName, lastDigits, address }) {
+function pushTokenize({
+  opc,
+  displayName,
+  lastDigits,
+  address,
+  network,
+  tokenServiceProvider,
+}) {
+  const binary = opc instanceof ArrayBuffer || ArrayBuffer.isView(opc);
   return new Promise((resolve, reject) => {
     exec(
       ({ tokenId }) => {
@@ -130,17 +269,74 @@ function pushTokenize({ opc, displayName, lastDigits, address }) {
       (error) => {
         if (typeof error === "string") {
           reject(error);
+        } else if (error.type === "timeout") {
+          resolve({ type: "timeout" });
         } else {
           resolve({ type: "canceled" });
         }
       },
       service,
       "pushTokenize",
-      [opc, displayName, lastDigits, address]
+      [
+        binary ? toArrayBuffer(opc) : opc,
+        displayName,
+        lastDigits,
+        address,
+        binary ? "binary" : "utf8",
+        network ?? null,
+        tokenServiceProvider ?? null,
+      ]
+    );
+  });
+}
+
+/**
+ * Push provisioning of several cards in one flow
+ *
+ * Every card is validated and prepared before the first one is launched, then Google Wallet is
+ * opened for one card after another. Resolves once every card has a result, with one result per
+ * card in the order given. Cards that fail validation get {type: "error", message} and are skipped.
+ */
+function pushTokenizeBatch(cards) {
+  return new Promise((resolve, reject) => {
+    exec(
+      ({ results }) => {
+        resolve({ type: "result", results });
+      },
+      reject,
+      service,
+      "pushTokenizeBatch",
+      [
+        cards.map(
+          ({ opc, displayName, lastDigits, address, network, tokenServiceProvider }) => {
+            // Only top level ArrayBuffer arguments are sent as binary by the bridge
+            const binary = opc instanceof ArrayBuffer || ArrayBuffer.isView(opc);
+            return {
+              opc: binary ? base64.fromArrayBuffer(toArrayBuffer(opc)) : opc,
+              opcEncoding: binary ? "base64" : "utf8",
+              displayName,
+              lastDigits,
+              address,
+              network: network ?? null,
+              tokenServiceProvider: tokenServiceProvider ?? null,
+            };
+          }
+        ),
+      ]
     );
   });
 }
 
+/**
+ * The bridge only sends whole ArrayBuffers as binary, views are copied out of their buffer
+ */
+function toArrayBuffer(data) {
+  if (data instanceof ArrayBuffer) {
+    return data;
+  }
+  return data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+}
+
 /**
  * Card lookup by last 4 FPAN digits
  * Please note this endpoint can return false positives since the last four FPAN digits are not necessarily unique among tokens.
@@ -172,4 +368,166 @@ function isCardInWallet({ identifier }) {
   });
 }
 
+/**
+ * Batched card lookup by last 4 FPAN digits
+ * Checks every identifier in one call, the lookups run in parallel on the native side.
+ * Same false positive caveat as isCardInWallet applies.
+ * @param identifiers list of last four FPAN (Last 4 card number digits)
+ *
+ * Resolves with results mapping each identifier to either { result } or { statusCode, message }.
+ */
+function isCardsInWallet({ identifiers }) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (results) => {
+        resolve({ type: "result", results });
+      },
+      reject,
+      service,
+      "isCardsInWallet",
+      [identifiers]
+    );
+  });
+}
+
+/**
+ * Token lookup from the plugin's local token index, without a Google Pay call
+ *
+ * Finds the tokens matching every given criterion. The index is built from the last listTokens
+ * result and fetched once if there is none yet. Unlike isCardInWallet it only sees tokens whose
+ * metadata matches your app package name, but it reports whether the last four digits are
+ * shared by several tokens.
+ * @param refresh refetch the token list before the lookup
+ */
+function findTokens(
+  { issuerTokenId, fpanLastFour, network, tokenState } = {},
+  { refresh } = {}
+) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (found) => {
+        resolve({ type: "result", ...found });
+      },
+      (error) => {
+        if (typeof error === "string") {
+          reject(error);
+        } else {
+          resolve({
+            type: "error",
+            statusCode: error.statusCode,
+            message: error.message,
+          });
+        }
+      },
+      service,
+      "findTokens",
+      [
+        {
+          issuerTokenId: issuerTokenId ?? null,
+          fpanLastFour: fpanLastFour ?? null,
+          network: network ?? null,
+          tokenState: tokenState ?? null,
+        },
+        !!refresh,
+      ]
+    );
+  });
+}
+
+/**
+ * Wallet state in one round-trip
+ *
+ * Fetches the active wallet ID, the token list and the tokenization status of the given
+ * identifiers in parallel. A failing part does not fail the whole call, its value is null
+ * and the failure is reported under errors instead.
+ * @param identifiers list of last four FPAN to look up
+ * @param refresh bypass the listTokens cache
+ */
+function getWalletState({ identifiers = [], refresh } = {}) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (state) => {
+        resolve({ type: "result", ...state });
+      },
+      reject,
+      service,
+      "getWalletState",
+      [identifiers, !!refresh]
+    );
+  });
+}
+
+/**
+ * Stale-while-revalidate wallet state
+ *
+ * Resolves immediately with the wallet state saved on disk by a previous run (requires the
+ * GoogleWalletPersistentSnapshot preference, otherwise walletId and tokens are null). Cached
+ * tokens only hold issuerTokenId, fpanLastFour, tokenState and network.
+ * The state is then fetched from Google Wallet and passed to onRevalidated together with
+ * changed, which tells whether it differs from the cached state.
+ * @param onRevalidated called once with { type: "revalidated", changed, walletId, tokens, error? }
+ */
+function getCachedWalletState(onRevalidated) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (state) => {
+        if (state.type === "cached") {
+          resolve({ ...state, type: "result" });
+        } else if (onRevalidated) {
+          onRevalidated(state);
+        }
+      },
+      reject,
+      service,
+      "getCachedWalletState"
+    );
+  });
+}
+
+/**
+ * Wallet change events
+ *
+ * Calls listener with { type: "changed", added, removed, changed, coalesced } whenever the
+ * token list changes, for example a token going from PENDING to ACTIVE. Bursts of changes are
+ * debounced into one event. Only one subscription is kept, subscribing again replaces the
+ * previous listener.
+ * @param listener called with every change or { type: "error", statusCode, message } event
+ * @param debounceMs quiet period before changes are reported, defaults to 500
+ *
+ * Resolves once the subscription is active.
+ */
+function subscribeWalletChanges(listener, { debounceMs = 500 } = {}) {
+  return new Promise((resolve, reject) => {
+    exec(
+      (event) => {
+        if (event.type === "subscribed") {
+          resolve({ type: "result" });
+        } else {
+          listener(event);
+        }
+      },
+      reject,
+      service,
+      "subscribeWalletChanges",
+      [debounceMs]
+    );
+  });
+}
+
+/**
+ * Stops wallet change events
+ */
+function unsubscribeWalletChanges() {
+  return new Promise((resolve, reject) => {
+    exec(
+      () => {
+        resolve({ type: "result" });
+      },
+      reject,
+      service,
+      "unsubscribeWalletChanges"
+    );
+  });
+}
+
 module.exports = tapAndPay;